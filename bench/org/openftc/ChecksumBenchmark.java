@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Hashing throughput over files from 1 MB to 2 GB, including the
+ * buffered against mapped comparison that sets MAPPED_THRESHOLD
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChecksumBenchmark
+{
+    @Param({"1048576", "16777216", "67108864", "268435456", "2147483648"})
+    public long size;
+
+    private File folder;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        folder = SyntheticFiles.tempFolder();
+        file = SyntheticFiles.random(folder, "input.bin", size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        FileUtil.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public String md5() throws IOException, NoSuchAlgorithmException
+    {
+        return Checksum.calculateMD5(file);
+    }
+
+    @Benchmark
+    public String sha1() throws IOException, NoSuchAlgorithmException
+    {
+        return Checksum.calculateSHA1(file);
+    }
+
+    @Benchmark
+    public String[] md5AndSha1() throws IOException, NoSuchAlgorithmException
+    {
+        return Checksum.calculate(file, Checksum.MD5, Checksum.SHA1);
+    }
+
+    @Benchmark
+    public String[] md5AndSha1Buffered() throws IOException, NoSuchAlgorithmException
+    {
+        try (InputStream is = new FileInputStream(file))
+        {
+            return Checksum.calculate(is, Checksum.MD5, Checksum.SHA1);
+        }
+    }
+
+    @Benchmark
+    public String[] md5AndSha1Mapped() throws IOException, NoSuchAlgorithmException
+    {
+        return Checksum.calculateMapped(file, Checksum.MD5, Checksum.SHA1);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A full run of the tool over a generated AAR and sources JAR,
+ * through the staging folder and through --stream
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RepackageBenchmark
+{
+    @Param({"1048576", "268435456"})
+    public long artifactSize;
+
+    @Param({"false", "true"})
+    public boolean stream;
+
+    private File folder;
+    private File aar;
+    private File sources;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        folder = SyntheticFiles.tempFolder();
+        aar = SyntheticFiles.aar(folder, "bench.aar", artifactSize);
+        sources = SyntheticFiles.aar(folder, "bench-sources.jar", artifactSize / 4);
+        output = new File(folder, "out.zip");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        FileUtil.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public long repackage() throws IOException, NoSuchAlgorithmException
+    {
+        RepackageRequest request = RepackageRequest.builder()
+                .artifact(aar, sources, "org.openftc.bench", "bench", "1.0")
+                .output(output)
+                .stream(stream)
+                .build();
+
+        try (Repackager repackager = Repackager.builder().build())
+        {
+            return repackager.repackage(request).outputFile().length();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/*
+ * Throwaway inputs for the benchmarks
+ */
+class SyntheticFiles
+{
+    /*
+     * Random bytes, so neither the page cache nor DEFLATE
+     * gets an easy ride
+     */
+    static File random(File folder, String name, long size) throws IOException
+    {
+        File file = new File(folder, name);
+        Random random = new Random(size);
+        byte[] buffer = new byte[1 << 20];
+
+        try (OutputStream os = Files.newOutputStream(file.toPath()))
+        {
+            for (long written = 0; written < size; written += buffer.length)
+            {
+                random.nextBytes(buffer);
+                os.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+
+        return file;
+    }
+
+    /*
+     * A ZIP holding one random payload, standing in for an AAR
+     */
+    static File aar(File folder, String name, long payloadSize) throws IOException
+    {
+        File payload = random(folder, name + ".payload", payloadSize);
+        File aar = new File(folder, name);
+
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(aar.toPath())))
+        {
+            zip.setLevel(0);
+            zip.putNextEntry(new ZipEntry("classes.jar"));
+            Files.copy(payload.toPath(), zip);
+            zip.closeEntry();
+        }
+
+        payload.delete();
+        return aar;
+    }
+
+    static File tempFolder() throws IOException
+    {
+        return Files.createTempDirectory("aar-repackager-bench").toFile();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Rendering the POM for one artifact, and the metadata for an
+ * artifact with a few dozen versions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TemplateBenchmark
+{
+    private Template pom;
+    private final Map<String, String> values = new HashMap<>();
+    private final List<String> versions = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        pom = Template.load("/artifact-pom.pom");
+
+        values.put("GROUP_ID_HERE", "org.openftc.bench");
+        values.put("ARTIFACT_ID_HERE", "bench");
+        values.put("ARTIFACT_VERSION_HERE", "1.0.0");
+        values.put("ARTIFACT_EXTENSION_HERE", "aar");
+        values.put("ARTIFACT_DATE_HERE", "20190101000000");
+
+        for (int minor = 0; minor < 8; minor++)
+        {
+            versions.add("1." + minor + ".0-rc1");
+            versions.add("1." + minor + ".0");
+            versions.add("1." + minor + ".1");
+            versions.add("1." + minor + ".2-SNAPSHOT");
+        }
+    }
+
+    @Benchmark
+    public byte[] pom()
+    {
+        return pom.render(values);
+    }
+
+    @Benchmark
+    public byte[] metadata() throws IOException
+    {
+        return MavenMetadata.render("org.openftc.bench", "bench", versions, "20190101000000");
+    }
+}
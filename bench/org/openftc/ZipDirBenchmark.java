@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/*
+ * FileUtil.zipDir over a staging tree shaped like the one Main
+ * produces, with a small or a large artifact in it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipDirBenchmark
+{
+    @Param({"1048576", "268435456"})
+    public long artifactSize;
+
+    @Param({"false", "true"})
+    public boolean deflateArchives;
+
+    private File folder;
+    private File stagingFolder;
+    private File zipFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        folder = SyntheticFiles.tempFolder();
+        stagingFolder = new File(folder, "staging");
+
+        File artifactFolder = new File(stagingFolder, "org/openftc/bench/1.0");
+        artifactFolder.mkdirs();
+
+        SyntheticFiles.aar(artifactFolder, "bench-1.0.aar", artifactSize);
+        SyntheticFiles.random(artifactFolder, "bench-1.0.aar.md5", 32);
+        SyntheticFiles.random(artifactFolder, "bench-1.0.aar.sha1", 40);
+        SyntheticFiles.random(artifactFolder, "bench-1.0.pom", 400);
+        SyntheticFiles.random(artifactFolder.getParentFile(), "maven-metadata.xml", 300);
+
+        zipFile = new File(folder, "out.zip");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        FileUtil.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public long zipDir() throws IOException
+    {
+        try (ZipWriter zip = new ZipWriter(zipFile, Deflater.DEFAULT_COMPRESSION, deflateArchives))
+        {
+            FileUtil.zipDir(stagingFolder.getPath(), zip);
+        }
+
+        return zipFile.length();
+    }
+}
@@ -0,0 +1,38 @@
+#!/bin/sh
+#
+# Compares how long each launcher takes to print its help and to
+# repackage a tiny AAR, averaged over a number of runs:
+#
+#   bench/startup.sh 20 "java -jar build/libs/AAR_Repackager.jar" build/native/AAR_Repackager
+#
+set -e
+
+runs=$1
+shift
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+head -c 65536 /dev/urandom > "$work/tiny.aar"
+
+now_ms() {
+    echo $(($(date +%s%N) / 1000000))
+}
+
+average_ms() {
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$runs" ]; do
+        "$@" > /dev/null
+        i=$((i + 1))
+    done
+    echo $((($(now_ms) - start) / runs))
+}
+
+printf '%-60s %10s %12s\n' launcher "help ms" "repackage ms"
+
+for launcher in "$@"; do
+    # Word splitting is wanted here, launchers can have arguments
+    help=$(average_ms $launcher -h)
+    repackage=$(average_ms $launcher -i "$work/tiny.aar" -g org.example -a tiny -v 1.0 -o "$work/tiny.zip")
+    printf '%-60s %10s %12s\n' "$launcher" "$help" "$repackage"
+done
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Repackages inputs far bigger than the 64MB heap the integrationTest
+ * task gives us, so anything that holds a whole file in memory (or
+ * uses an int for a size) fails here. The inputs are sparse files, so
+ * they cost next to nothing to make; the output ZIPs are real though,
+ * so expect these to take a while and want ~10GB of free space.
+ */
+class LargeArchiveTest
+{
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @TempDir
+    Path folder;
+
+    /*
+     * Over 4GB, so the entry needs ZIP64 sizes, and then merged into
+     * so that it gets transplanted from a ZIP64 archive too
+     */
+    @Test
+    void archiveOverFourGigabytes() throws Exception
+    {
+        File input = sparseFile("big.aar", 4 * GB + 512L * 1024 * 1024);
+        File sources = folder.resolve("big-sources.jar").toFile();
+        Files.write(sources.toPath(), "not really a JAR".getBytes(StandardCharsets.UTF_8));
+        Digest expected = digest(input);
+
+        File output = folder.resolve("out.zip").toFile();
+
+        try (Repackager repackager = Repackager.builder().build())
+        {
+            RepackageResult result = repackager.repackage(RepackageRequest.builder()
+                    .artifact(input, sources, "org.example", "big", "1.0")
+                    .output(output)
+                    .checksums("sha1")
+                    .build());
+
+            assertEquals(expected.sha1, result.checksums().get("org/example/big/1.0/big-1.0.aar").get("sha1"));
+        }
+
+        try (ZipFile zipFile = new ZipFile(output))
+        {
+            assertEntry(zipFile, "org/example/big/1.0/big-1.0.aar", ZipEntry.STORED, input.length(), expected.crc);
+            assertText(zipFile, "org/example/big/1.0/big-1.0.aar.sha1", expected.sha1);
+            assertNotNull(zipFile.getEntry("org/example/big/1.0/big-1.0-sources.jar"));
+            assertNotNull(zipFile.getEntry("org/example/big/1.0/big-1.0.pom"));
+        }
+
+        /*
+         * The staging folder shouldn't be left behind
+         */
+        assertFalse(new File(output.getPath() + ".staging").exists());
+
+        File small = folder.resolve("small.aar").toFile();
+        Files.write(small.toPath(), new byte[1000]);
+
+        try (Repackager repackager = Repackager.builder().build())
+        {
+            repackager.repackage(RepackageRequest.builder()
+                    .artifact(small, null, "org.example", "big", "1.1")
+                    .output(output)
+                    .merge(output)
+                    .build());
+        }
+
+        try (ZipFile zipFile = new ZipFile(output))
+        {
+            assertEntry(zipFile, "org/example/big/1.0/big-1.0.aar", ZipEntry.STORED, input.length(), expected.crc);
+            assertNotNull(zipFile.getEntry("org/example/big/1.1/big-1.1.aar"));
+
+            byte[] metadata = readSmall(zipFile, "org/example/big/maven-metadata.xml");
+            assertEquals(Arrays.asList("1.0", "1.1"), MavenMetadata.readVersions(metadata));
+        }
+    }
+
+    /*
+     * Over 2GB, which used to be the hard limit from buffering
+     * entries in a byte array, written straight into the ZIP and
+     * deflated on the way
+     */
+    @Test
+    void streamedAndDeflatedArchiveOverTwoGigabytes() throws Exception
+    {
+        File input = sparseFile("big.aar", 2 * GB + 512L * 1024 * 1024);
+        Digest expected = digest(input);
+        File output = folder.resolve("out.zip").toFile();
+
+        try (Repackager repackager = Repackager.builder().build())
+        {
+            RepackageResult result = repackager.repackage(RepackageRequest.builder()
+                    .artifact(input, null, "org.example", "big", "1.0")
+                    .output(output)
+                    .checksums("sha1")
+                    .stream(true)
+                    .deflateArchives(true)
+                    .build());
+
+            assertEquals(expected.sha1, result.checksums().get("org/example/big/1.0/big-1.0.aar").get("sha1"));
+        }
+
+        /*
+         * Zeros deflate to almost nothing
+         */
+        assertTrue(output.length() < input.length() / 100, "output is " + output.length() + " bytes");
+
+        try (ZipFile zipFile = new ZipFile(output))
+        {
+            assertEntry(zipFile, "org/example/big/1.0/big-1.0.aar", ZipEntry.DEFLATED, input.length(), expected.crc);
+            assertText(zipFile, "org/example/big/1.0/big-1.0.aar.sha1", expected.sha1);
+        }
+    }
+
+    private File sparseFile(String name, long length) throws IOException
+    {
+        File file = folder.resolve(name).toFile();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(length);
+
+            /*
+             * A little something at either end, so a CRC that skipped
+             * the start or the end of the data would come out wrong
+             */
+            raf.write("start".getBytes(StandardCharsets.US_ASCII));
+            raf.seek(length - 3);
+            raf.write("end".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        return file;
+    }
+
+    private static class Digest
+    {
+        long crc;
+        String sha1;
+    }
+
+    private static Digest digest(File file) throws Exception
+    {
+        CRC32 crc = new CRC32();
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        byte[] buffer = new byte[1 << 20];
+
+        try (InputStream is = Files.newInputStream(file.toPath()))
+        {
+            int read;
+
+            while ((read = is.read(buffer)) > 0)
+            {
+                crc.update(buffer, 0, read);
+                sha1.update(buffer, 0, read);
+            }
+        }
+
+        Digest digest = new Digest();
+        digest.crc = crc.getValue();
+        digest.sha1 = Checksum.toHex(new MessageDigest[] {sha1})[0];
+        return digest;
+    }
+
+    /*
+     * Reads the entry back through java.util.zip, checking the sizes
+     * and CRC in the ZIP against what actually comes out of it
+     */
+    private static void assertEntry(ZipFile zipFile, String name, int method, long size, long crc) throws IOException
+    {
+        ZipEntry entry = zipFile.getEntry(name);
+        assertNotNull(entry, name);
+        assertEquals(method, entry.getMethod(), name);
+        assertEquals(size, entry.getSize(), name);
+        assertEquals(crc, entry.getCrc(), name);
+
+        CRC32 actual = new CRC32();
+        byte[] buffer = new byte[1 << 20];
+        long total = 0;
+
+        try (InputStream is = zipFile.getInputStream(entry))
+        {
+            int read;
+
+            while ((read = is.read(buffer)) > 0)
+            {
+                actual.update(buffer, 0, read);
+                total += read;
+            }
+        }
+
+        assertEquals(size, total, name);
+        assertEquals(crc, actual.getValue(), name);
+    }
+
+    private static void assertText(ZipFile zipFile, String name, String expected) throws IOException
+    {
+        assertEquals(expected, new String(readSmall(zipFile, name), StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readSmall(ZipFile zipFile, String name) throws IOException
+    {
+        ZipEntry entry = zipFile.getEntry(name);
+        assertNotNull(entry, name);
+        byte[] content = new byte[(int) entry.getSize()];
+
+        try (InputStream is = zipFile.getInputStream(entry))
+        {
+            int offset = 0;
+            int read;
+
+            while (offset < content.length && (read = is.read(content, offset, content.length - offset)) > 0)
+            {
+                offset += read;
+            }
+        }
+
+        return content;
+    }
+}
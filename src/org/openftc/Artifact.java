@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * One AAR/JAR to be repackaged, along with its Maven coordinates
+ */
+class Artifact
+{
+    private static final String ARTIFACT_PACKAGING_AAR = "aar";
+    private static final String ARTIFACT_PACKAGING_JAR = "jar";
+    private static final String AAR_FILE_EXTENSION = ".aar";
+    private static final String JAR_FILE_EXTENSION = ".jar";
+
+    final File inputFile;
+    final File sourcesFile;
+    final String groupName;
+    final String artifactName;
+    final String artifactVersion;
+    final String extension;
+    final String packaging;
+
+    Artifact(File inputFile, File sourcesFile, String groupName, String artifactName, String artifactVersion)
+    {
+        this.inputFile = inputFile;
+        this.sourcesFile = sourcesFile;
+        this.groupName = groupName;
+        this.artifactName = artifactName;
+        this.artifactVersion = artifactVersion;
+
+        if(inputFile.getName().endsWith(AAR_FILE_EXTENSION))
+        {
+            extension = AAR_FILE_EXTENSION;
+            packaging = ARTIFACT_PACKAGING_AAR;
+        }
+        else if(inputFile.getName().endsWith(JAR_FILE_EXTENSION))
+        {
+            extension = JAR_FILE_EXTENSION;
+            packaging = ARTIFACT_PACKAGING_JAR;
+        }
+        else
+        {
+            throw new RuntimeException("Was not given JAR or AAR as input: " + inputFile);
+        }
+    }
+
+    String metadataFolder()
+    {
+        return groupName.replace('.', '/') + "/" + artifactName;
+    }
+
+    String artifactFolder()
+    {
+        return metadataFolder() + "/" + artifactVersion;
+    }
+
+    String baseName()
+    {
+        return artifactName + "-" + artifactVersion;
+    }
+
+    String coordinates()
+    {
+        return groupName + ":" + artifactName + ":" + artifactVersion;
+    }
+
+    /*
+     * Name of the ZIP the artifact gets to itself in batch mode. The
+     * group is in there too, since two groups can well have an
+     * artifact of the same name and version.
+     */
+    String zipName()
+    {
+        return groupName + "-" + baseName() + ".zip";
+    }
+
+    /*
+     * Reads a batch manifest. Each line is
+     *
+     *   input,sources,group,artifact,version
+     *
+     * where sources may be left empty. Blank lines and lines starting
+     * with '#' are skipped, and relative paths are resolved against the
+     * folder the manifest lives in. The same coordinates twice is an
+     * error, as there'd be no telling which one should win.
+     */
+    static List<Artifact> readManifest(File manifest) throws IOException
+    {
+        File baseFolder = manifest.getAbsoluteFile().getParentFile();
+        List<Artifact> artifacts = new ArrayList<>();
+        Map<String, Integer> lineNumbers = new HashMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null)
+            {
+                lineNumber++;
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+
+                String[] fields = line.split(",", -1);
+
+                if (fields.length != 5)
+                {
+                    throw new IOException(manifest + ":" + lineNumber + ": expected input,sources,group,artifact,version");
+                }
+
+                String sources = fields[1].trim();
+
+                Artifact artifact = new Artifact(
+                        resolve(baseFolder, fields[0].trim()),
+                        sources.isEmpty() ? null : resolve(baseFolder, sources),
+                        fields[2].trim(),
+                        fields[3].trim(),
+                        fields[4].trim());
+
+                Integer previous = lineNumbers.putIfAbsent(artifact.coordinates(), lineNumber);
+
+                if (previous != null)
+                {
+                    throw new IOException(manifest + ":" + lineNumber + ": " + artifact.coordinates() + " is already on line " + previous);
+                }
+
+                artifacts.add(artifact);
+            }
+        }
+
+        return artifacts;
+    }
+
+    private static File resolve(File baseFolder, String path)
+    {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseFolder, path);
+    }
+}
@@ -12,57 +12,260 @@ package org.openftc;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 class Checksum
 {
+    /*
+     * Checksums are identified by the extension of the
+     * sidecar file Maven expects them in
+     */
+    static final String MD5 = "md5";
+    static final String SHA1 = "sha1";
+    static final String SHA256 = "sha256";
+    static final String SHA512 = "sha512";
+
+    /*
+     * The ones Maven knows to look for, and so the only ones
+     * worth writing out
+     */
+    static final List<String> SUPPORTED = Collections.unmodifiableList(Arrays.asList(MD5, SHA1, SHA256, SHA512));
+
+    /*
+     * Not something Maven wants, but ZIP entries do, and computing
+     * it alongside the others saves a separate read
+     */
+    static final String CRC32 = "crc32";
+
+    /*
+     * Files at least this big are hashed by mapping them into memory
+     * a window at a time rather than reading them through a buffer,
+     * which saves a syscall and a copy for every 8K
+     */
+    static final long MAPPED_THRESHOLD = 64L * 1024 * 1024;
+    private static final long MAPPED_WINDOW = 256L * 1024 * 1024;
+
     static String calculateMD5(File file) throws NoSuchAlgorithmException, IOException
     {
-        MessageDigest digest = MessageDigest.getInstance("MD5");
-        InputStream is = new FileInputStream(file);
+        return calculate(file, MD5)[0];
+    }
 
-        byte[] buffer = new byte[8192];
-        int read;
+    static String calculateSHA1(File file) throws NoSuchAlgorithmException, IOException
+    {
+        return calculate(file, SHA1)[0];
+    }
 
-        while ((read = is.read(buffer)) > 0)
+    /*
+     * Reads the file once, feeding each buffer to every requested
+     * digest. The hex strings are returned in the order requested.
+     */
+    static String[] calculate(File file, String... checksums) throws NoSuchAlgorithmException, IOException
+    {
+        if (file.length() >= MAPPED_THRESHOLD)
         {
-            digest.update(buffer, 0, read);
+            return calculateMapped(file, checksums);
         }
 
-        is.close();
+        try (InputStream is = new FileInputStream(file))
+        {
+            return calculate(is, checksums);
+        }
+    }
 
-        byte[] md5sum = digest.digest();
-        BigInteger bigInt = new BigInteger(1, md5sum);
-        String output = bigInt.toString(16);
-        // Fill to 32 chars
-        output = String.format("%32s", output).replace(' ', '0');
-        return output;
+    static String[] calculateMapped(File file, String... checksums) throws NoSuchAlgorithmException, IOException
+    {
+        MessageDigest[] digests = newDigests(checksums);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+
+            for (long position = 0; position < size; position += MAPPED_WINDOW)
+            {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_WINDOW, size - position));
+
+                for (MessageDigest digest : digests)
+                {
+                    window.rewind();
+                    digest.update(window);
+                }
+            }
+        }
+
+        return toHex(digests);
     }
 
-    static String calculateSHA1(File file) throws NoSuchAlgorithmException, IOException
+    static String[] calculate(InputStream is, String... checksums) throws NoSuchAlgorithmException, IOException
     {
-        MessageDigest digest = MessageDigest.getInstance("SHA1");
-        InputStream is = new FileInputStream(file);
+        MessageDigest[] digests = newDigests(checksums);
 
         byte[] buffer = new byte[8192];
         int read;
 
         while ((read = is.read(buffer)) > 0)
         {
-            digest.update(buffer, 0, read);
+            for (MessageDigest digest : digests)
+            {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return toHex(digests);
+    }
+
+    static String[] calculate(byte[] data, String... checksums) throws NoSuchAlgorithmException
+    {
+        MessageDigest[] digests = newDigests(checksums);
+
+        for (MessageDigest digest : digests)
+        {
+            digest.update(data);
+        }
+
+        return toHex(digests);
+    }
+
+    /*
+     * Copies the file, feeding each buffer to every requested digest
+     * on its way to the destination, so the copy never has to be
+     * read back to be hashed
+     */
+    static String[] copy(File source, File destination, String... checksums) throws NoSuchAlgorithmException, IOException
+    {
+        try (OutputStream os = new FileOutputStream(destination))
+        {
+            return copy(source, os, checksums);
         }
+    }
 
-        is.close();
+    static String[] copy(File source, OutputStream destination, String... checksums) throws NoSuchAlgorithmException, IOException
+    {
+        MessageDigest[] digests = newDigests(checksums);
+
+        try (InputStream is = new FileInputStream(source))
+        {
+            byte[] buffer = new byte[65536];
+            int read;
+
+            while ((read = is.read(buffer)) > 0)
+            {
+                for (MessageDigest digest : digests)
+                {
+                    digest.update(buffer, 0, read);
+                }
+
+                destination.write(buffer, 0, read);
+            }
+        }
+
+        return toHex(digests);
+    }
+
+    static MessageDigest[] newDigests(String... checksums) throws NoSuchAlgorithmException
+    {
+        MessageDigest[] digests = new MessageDigest[checksums.length];
+
+        for (int i = 0; i < checksums.length; i++)
+        {
+            digests[i] = checksums[i].equals(CRC32) ? new Crc32Digest() : MessageDigest.getInstance(algorithmFor(checksums[i]));
+        }
+
+        return digests;
+    }
+
+    static String[] toHex(MessageDigest[] digests)
+    {
+        String[] output = new String[digests.length];
+
+        for (int i = 0; i < digests.length; i++)
+        {
+            BigInteger bigInt = new BigInteger(1, digests[i].digest());
+            // Fill to the full width of the digest
+            int width = digests[i].getDigestLength() * 2;
+            output[i] = String.format("%" + width + "s", bigInt.toString(16)).replace(' ', '0');
+        }
 
-        byte[] md5sum = digest.digest();
-        BigInteger bigInt = new BigInteger(1, md5sum);
-        String output = bigInt.toString(16);
-        // Fill to 32 chars
-        output = String.format("%32s", output).replace(' ', '0');
         return output;
     }
+
+    private static String algorithmFor(String checksum) throws NoSuchAlgorithmException
+    {
+        switch (checksum)
+        {
+            case MD5:
+                return "MD5";
+            case SHA1:
+                return "SHA-1";
+            case SHA256:
+                return "SHA-256";
+            case SHA512:
+                return "SHA-512";
+            default:
+                throw new NoSuchAlgorithmException("Unsupported checksum: " + checksum);
+        }
+    }
+
+    /*
+     * Lets a CRC32 ride along with the real digests
+     */
+    private static class Crc32Digest extends MessageDigest
+    {
+        private final java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+
+        Crc32Digest()
+        {
+            super("CRC32");
+        }
+
+        @Override
+        protected void engineUpdate(byte input)
+        {
+            crc.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len)
+        {
+            crc.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input)
+        {
+            crc.update(input);
+        }
+
+        @Override
+        protected byte[] engineDigest()
+        {
+            long value = crc.getValue();
+            crc.reset();
+            return new byte[] {(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+        }
+
+        @Override
+        protected int engineGetDigestLength()
+        {
+            return 4;
+        }
+
+        @Override
+        protected void engineReset()
+        {
+            crc.reset();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Remembers the checksums of input files between runs, so unchanged
+ * inputs don't have to be read again. Entries are keyed on the canonical
+ * path and are only trusted while the size, modification time and file
+ * key of the file still match what they were when it was hashed.
+ *
+ * The index is a text file with one line per input:
+ *
+ *   path \t size \t mtime \t fileKey \t name=value,name=value...
+ */
+class ChecksumCache
+{
+    private final File indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static class Entry
+    {
+        final String stamp;
+        final Map<String, String> values;
+
+        Entry(String stamp, Map<String, String> values)
+        {
+            this.stamp = stamp;
+            this.values = values;
+        }
+    }
+
+    /*
+     * With no index file the cache only lives as long as the run
+     */
+    ChecksumCache(File indexFile) throws IOException
+    {
+        this.indexFile = indexFile;
+
+        if (indexFile == null || !indexFile.exists())
+        {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                String[] fields = line.split("\t", -1);
+
+                /*
+                 * Anything we can't make sense of just gets recomputed
+                 */
+                if (fields.length != 5)
+                {
+                    continue;
+                }
+
+                Map<String, String> values = new HashMap<>();
+
+                for (String pair : fields[4].split(","))
+                {
+                    int separator = pair.indexOf('=');
+
+                    if (separator > 0)
+                    {
+                        values.put(pair.substring(0, separator), pair.substring(separator + 1));
+                    }
+                }
+
+                entries.put(fields[0], new Entry(fields[1] + "\t" + fields[2] + "\t" + fields[3], values));
+            }
+        }
+    }
+
+    /*
+     * Returns the cached checksums of the file in the order asked for,
+     * or null if any of them is missing or the file has changed since
+     */
+    String[] get(File file, String... checksums) throws IOException
+    {
+        Entry entry = entries.get(file.getCanonicalPath());
+
+        if (entry == null || !entry.stamp.equals(stampOf(file)))
+        {
+            return null;
+        }
+
+        String[] values = new String[checksums.length];
+
+        for (int i = 0; i < checksums.length; i++)
+        {
+            values[i] = entry.values.get(checksums[i]);
+
+            if (values[i] == null)
+            {
+                return null;
+            }
+        }
+
+        return values;
+    }
+
+    /*
+     * Remembers checksums worked out from the file as it was when the
+     * stamp was taken, which has to be before it was read. If the file
+     * has changed since, they may be of either version (or neither), so
+     * they are dropped.
+     */
+    void put(File file, String stamp, String[] checksums, String[] values) throws IOException
+    {
+        if (!stamp.equals(stampOf(file)))
+        {
+            return;
+        }
+
+        String path = file.getCanonicalPath();
+        Map<String, String> merged = new HashMap<>();
+
+        Entry previous = entries.get(path);
+
+        if (previous != null && previous.stamp.equals(stamp))
+        {
+            merged.putAll(previous.values);
+        }
+
+        for (int i = 0; i < checksums.length; i++)
+        {
+            merged.put(checksums[i], values[i]);
+        }
+
+        entries.put(path, new Entry(stamp, merged));
+    }
+
+    /*
+     * Looks the file up, hashing it (and remembering the result)
+     * only if there is nothing usable in the cache
+     */
+    String[] calculate(File file, String... checksums) throws IOException, NoSuchAlgorithmException
+    {
+        String[] values = get(file, checksums);
+
+        if (values == null)
+        {
+            String stamp = stampOf(file);
+            values = Checksum.calculate(file, checksums);
+            put(file, stamp, checksums, values);
+        }
+
+        return values;
+    }
+
+    /*
+     * Writes the index back out, dropping files that no longer exist
+     */
+    void save() throws IOException
+    {
+        if (indexFile == null)
+        {
+            return;
+        }
+
+        /*
+         * Two runs sharing an index each get their own temporary file,
+         * and whichever finishes last wins
+         */
+        Path temp = FileUtil.temporaryFor(indexFile).toPath();
+
+        try
+        {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                for (Map.Entry<String, Entry> e : entries.entrySet())
+                {
+                    if (!new File(e.getKey()).exists())
+                    {
+                        continue;
+                    }
+
+                    StringBuilder line = new StringBuilder();
+                    line.append(e.getKey()).append('\t').append(e.getValue().stamp).append('\t');
+
+                    String separator = "";
+
+                    for (Map.Entry<String, String> value : e.getValue().values.entrySet())
+                    {
+                        line.append(separator).append(value.getKey()).append('=').append(value.getValue());
+                        separator = ",";
+                    }
+
+                    writer.write(line.toString());
+                    writer.newLine();
+                }
+            }
+
+            Files.move(temp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static String stampOf(File file) throws IOException
+    {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+
+        return attributes.size() + "\t" + attributes.lastModifiedTime().toMillis() + "\t" + (fileKey == null ? "-" : fileKey);
+    }
+}
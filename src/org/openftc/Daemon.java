@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/*
+ * Keeps one JVM running so repeated runs don't each pay for startup,
+ * class loading and JIT warm-up. The daemon listens on a localhost
+ * port and runs each request it gets (the same options as the command
+ * line) on a shared pool; the client just forwards its arguments and
+ * working folder and relays back whatever the run prints.
+ *
+ * Any local user can connect to the port, so the daemon makes up a
+ * random token when it starts and writes it to a file only the user
+ * running it can read, next to a file with its port:
+ *
+ *   ~/.aar_repackager/daemon.port          (the last daemon started)
+ *   ~/.aar_repackager/daemon-PORT.token
+ *
+ * Clients send the token first, and requests without it are turned
+ * away before anything else of theirs is read. Each connection gets
+ * its own thread and only a limited time to get its request in, so a
+ * client that connects and then sits there can't hold up anyone else;
+ * the runs themselves are still limited to the number of threads the
+ * daemon was started with.
+ *
+ * Wire format, all through Data{Input,Output}Stream:
+ *   request:  UTF token, UTF working folder, int argument count,
+ *             UTF arguments
+ *   response: frames of byte channel (1 = out, 2 = err), int length,
+ *             bytes; then a 0 byte and an int exit status
+ */
+class Daemon
+{
+    static final String SHUTDOWN = "--shutdown";
+
+    private static final int CHANNEL_EXIT = 0;
+    private static final int CHANNEL_OUT = 1;
+    private static final int CHANNEL_ERR = 2;
+
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+    private static final int MAX_ARGUMENTS = 4096;
+    private static final int MAX_UNREAD_BYTES = 1 << 20;
+
+    private static final File FOLDER = new File(System.getProperty("user.home"), ".aar_repackager");
+    private static final File PORT_FILE = new File(FOLDER, "daemon.port");
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Semaphore runs;
+    private final byte[] token;
+
+    private Daemon(int port, int threads) throws IOException
+    {
+        /*
+         * Only ever reachable from this machine
+         */
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool();
+        runs = new Semaphore(threads);
+
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        token = String.format("%64s", new BigInteger(1, random).toString(16)).replace(' ', '0').getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /*
+     * Accepts requests until one of them asks us to shut down
+     */
+    static void serve(int port, int threads, PrintStream out) throws IOException
+    {
+        Daemon daemon = new Daemon(port, threads);
+        int localPort = daemon.serverSocket.getLocalPort();
+        File tokenFile = tokenFile(localPort);
+
+        try
+        {
+            writePrivate(tokenFile, daemon.token);
+            Files.write(PORT_FILE.toPath(), Integer.toString(localPort).getBytes(StandardCharsets.US_ASCII));
+        }
+        catch (IOException e)
+        {
+            daemon.serverSocket.close();
+            daemon.executor.shutdown();
+            throw e;
+        }
+
+        out.println("Listening on port " + localPort);
+        out.flush();
+
+        try
+        {
+            while (true)
+            {
+                Socket socket;
+
+                try
+                {
+                    socket = daemon.serverSocket.accept();
+                }
+                catch (SocketException e)
+                {
+                    if (daemon.serverSocket.isClosed())
+                    {
+                        break;
+                    }
+
+                    throw e;
+                }
+
+                daemon.executor.execute(() -> daemon.handle(socket));
+            }
+        }
+        finally
+        {
+            daemon.executor.shutdown();
+            Files.deleteIfExists(tokenFile.toPath());
+
+            /*
+             * Another daemon may have been started since
+             */
+            if (Integer.toString(localPort).equals(readPortFile()))
+            {
+                Files.deleteIfExists(PORT_FILE.toPath());
+            }
+        }
+    }
+
+    private void handle(Socket socket)
+    {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream response = new DataOutputStream(new BufferedOutputStream(s.getOutputStream())))
+        {
+            s.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+
+            PrintStream out = new PrintStream(new FrameOutputStream(response, CHANNEL_OUT), true, "UTF-8");
+            PrintStream err = new PrintStream(new FrameOutputStream(response, CHANNEL_ERR), true, "UTF-8");
+            byte[] clientToken = in.readUTF().getBytes(StandardCharsets.US_ASCII);
+            int status = 1;
+            boolean readAll = false;
+
+            /*
+             * Nothing past the token gets read until it checks out
+             */
+            if (!MessageDigest.isEqual(clientToken, token))
+            {
+                err.println("The daemon turned the request down: wrong or missing token in " + tokenFile(serverSocket.getLocalPort()));
+            }
+            else
+            {
+                File workingFolder = new File(in.readUTF());
+                int count = in.readInt();
+
+                if (count < 0 || count > MAX_ARGUMENTS)
+                {
+                    err.println("The daemon turned the request down: can't take " + count + " arguments");
+                }
+                else
+                {
+                    String[] args = new String[count];
+
+                    for (int i = 0; i < args.length; i++)
+                    {
+                        args[i] = in.readUTF();
+                    }
+
+                    readAll = true;
+                    status = run(args, workingFolder, out, err);
+                }
+            }
+
+            out.flush();
+            err.flush();
+
+            synchronized (response)
+            {
+                response.writeByte(CHANNEL_EXIT);
+                response.writeInt(status);
+                response.flush();
+            }
+
+            if (!readAll)
+            {
+                discardRest(s, in);
+            }
+        }
+        catch (IOException e)
+        {
+            /*
+             * The client went away, nobody left to tell
+             */
+        }
+    }
+
+    private int run(String[] args, File workingFolder, PrintStream out, PrintStream err) throws IOException
+    {
+        if (args.length == 1 && args[0].equals(SHUTDOWN))
+        {
+            serverSocket.close();
+            return 0;
+        }
+
+        try
+        {
+            runs.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+
+        try
+        {
+            return Main.execute(args, workingFolder, out, err);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace(err);
+            return 1;
+        }
+        finally
+        {
+            runs.release();
+        }
+    }
+
+    /*
+     * Closing a socket with the client's request still unread resets
+     * the connection, which can take our answer down with it before
+     * the client gets to read it. So hang up our end and let the rest
+     * come in first, within reason.
+     */
+    private static void discardRest(Socket socket, DataInputStream in) throws IOException
+    {
+        socket.shutdownOutput();
+
+        byte[] buffer = new byte[8192];
+        int total = 0;
+
+        for (int read; total < MAX_UNREAD_BYTES && (read = in.read(buffer)) != -1; )
+        {
+            total += read;
+        }
+    }
+
+    /*
+     * Sends the arguments to the daemon on the given port and relays
+     * its output. If there's no daemon running, the run happens right
+     * here instead.
+     */
+    static int forward(int port, String[] args, PrintStream out, PrintStream err) throws IOException, NoSuchAlgorithmException
+    {
+        Socket socket;
+
+        try
+        {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        }
+        catch (ConnectException e)
+        {
+            if (args.length == 1 && args[0].equals(SHUTDOWN))
+            {
+                return 0;
+            }
+
+            return Main.execute(args, null, out, err);
+        }
+
+        try (Socket s = socket;
+             DataOutputStream request = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream())))
+        {
+            request.writeUTF(readToken(port));
+            request.writeUTF(new File("").getAbsolutePath());
+            request.writeInt(args.length);
+
+            for (String arg : args)
+            {
+                request.writeUTF(arg);
+            }
+
+            request.flush();
+
+            byte[] buffer = new byte[8192];
+
+            while (true)
+            {
+                int channel = in.readUnsignedByte();
+
+                if (channel == CHANNEL_EXIT)
+                {
+                    out.flush();
+                    err.flush();
+                    return in.readInt();
+                }
+
+                PrintStream target = channel == CHANNEL_ERR ? err : out;
+
+                for (int remaining = in.readInt(); remaining > 0; )
+                {
+                    int read = Math.min(remaining, buffer.length);
+                    in.readFully(buffer, 0, read);
+                    target.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+    }
+
+    private static File tokenFile(int port)
+    {
+        return new File(FOLDER, "daemon-" + port + ".token");
+    }
+
+    /*
+     * Whatever is listening on the port may not be one of ours, in
+     * which case there's no token to send and it gets an empty one
+     */
+    private static String readToken(int port) throws IOException
+    {
+        try
+        {
+            return new String(Files.readAllBytes(tokenFile(port).toPath()), StandardCharsets.US_ASCII).trim();
+        }
+        catch (NoSuchFileException e)
+        {
+            return "";
+        }
+    }
+
+    private static String readPortFile() throws IOException
+    {
+        try
+        {
+            return new String(Files.readAllBytes(PORT_FILE.toPath()), StandardCharsets.US_ASCII).trim();
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+
+    /*
+     * Creates the file readable and writable by its owner only (0600),
+     * in a folder nobody else can list. Where there are no POSIX
+     * permissions it gets as close as java.io.File allows.
+     */
+    private static void writePrivate(File file, byte[] content) throws IOException
+    {
+        Path path = file.toPath();
+        boolean posix = FOLDER.toPath().getFileSystem().supportedFileAttributeViews().contains("posix");
+
+        if (!FOLDER.isDirectory())
+        {
+            if (posix)
+            {
+                Files.createDirectories(FOLDER.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            }
+            else
+            {
+                Files.createDirectories(FOLDER.toPath());
+            }
+        }
+
+        /*
+         * A stale one from a daemon that didn't get to clean up
+         * could have any permissions, so start from scratch
+         */
+        Files.deleteIfExists(path);
+
+        if (posix)
+        {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        else
+        {
+            Files.createFile(path);
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+
+        Files.write(path, content);
+    }
+
+    /*
+     * Tags everything written to it with a channel so out and err
+     * can share the one socket
+     */
+    private static class FrameOutputStream extends OutputStream
+    {
+        private final DataOutputStream response;
+        private final int channel;
+
+        FrameOutputStream(DataOutputStream response, int channel)
+        {
+            this.response = response;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            synchronized (response)
+            {
+                response.writeByte(channel);
+                response.writeInt(len);
+                response.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            synchronized (response)
+            {
+                response.flush();
+            }
+        }
+    }
+}
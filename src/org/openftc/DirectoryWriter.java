@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Writes the repository layout out as plain files under a root folder.
+ *
+ * Every file is written under a temporary name and renamed into place,
+ * so nobody reading a live repository ever sees a half-written file.
+ * It also means whatever was at the path before is replaced rather
+ * than written through, which matters when that is a hard link to
+ * somebody's input left behind by a failed run.
+ *
+ * When staging, the input archives are hard linked into place where
+ * the filesystem allows it, which saves writing out a copy that only
+ * gets read back for zipping and deleted. A live repository gets real
+ * copies, so it doesn't end up sharing its contents with the input.
+ */
+class DirectoryWriter implements RepositoryWriter
+{
+    /*
+     * A staged file's CRC-32, along with the size and modification time
+     * the file had when it was worked out. A hard linked file is still
+     * the input, so if somebody rewrites that before it gets zipped
+     * the CRC no longer holds.
+     */
+    private static class StagedCrc
+    {
+        final long crc;
+        final long size;
+        final FileTime lastModified;
+
+        StagedCrc(long crc, BasicFileAttributes attributes)
+        {
+            this.crc = crc;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+        }
+
+        boolean matches(BasicFileAttributes attributes)
+        {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+        }
+    }
+
+    private final File root;
+    private final ChecksumCache cache;
+    private final boolean link;
+    private final Map<String, StagedCrc> crcs = new ConcurrentHashMap<>();
+
+    private DirectoryWriter(File root, ChecksumCache cache, boolean link)
+    {
+        this.root = root;
+        this.cache = cache;
+        this.link = link;
+    }
+
+    static DirectoryWriter staging(File root, ChecksumCache cache)
+    {
+        return new DirectoryWriter(root, cache, true);
+    }
+
+    static DirectoryWriter repository(File root, ChecksumCache cache)
+    {
+        return new DirectoryWriter(root, cache, false);
+    }
+
+    @Override
+    public void write(String path, byte[] content) throws IOException
+    {
+        File destination = prepare(path);
+        File target = FileUtil.temporaryFor(destination);
+
+        try
+        {
+            Files.write(target.toPath(), content);
+            publish(target, destination);
+        }
+        finally
+        {
+            discard(target);
+        }
+    }
+
+    @Override
+    public String[] copy(String path, File source, Metrics.Timer timer, String... checksums) throws IOException, NoSuchAlgorithmException
+    {
+        File destination = prepare(path);
+
+        /*
+         * While staging, work out the CRC along with the checksums
+         * so zipDir doesn't have to read the file all over again
+         */
+        String[] names = link ? withCrc(checksums) : checksums;
+        String[] values;
+        BasicFileAttributes attributes;
+        File target = FileUtil.temporaryFor(destination);
+
+        try
+        {
+            if (link && tryLink(source, target))
+            {
+                /*
+                 * Nothing was copied, so the hashing has to be done on
+                 * its own. The stamp is taken first, so a change made
+                 * while hashing shows up as a mismatch later.
+                 */
+                attributes = attributesOf(target);
+                values = hash(source, timer, names);
+            }
+            else
+            {
+                values = copyTo(target, source, timer, names);
+                attributes = attributesOf(target);
+            }
+
+            publish(target, destination);
+        }
+        finally
+        {
+            discard(target);
+        }
+
+        if (names != checksums)
+        {
+            crcs.put(path, new StagedCrc(Long.parseLong(values[checksums.length], 16), attributes));
+            return Arrays.copyOf(values, checksums.length);
+        }
+
+        return values;
+    }
+
+    /*
+     * The CRC-32 of a staged input by its '/'-separated path, or null
+     * if it isn't known or the file has changed since it was hashed
+     */
+    Long crc(String path) throws IOException
+    {
+        StagedCrc staged = crcs.get(path);
+
+        if (staged == null || !staged.matches(attributesOf(new File(root, path))))
+        {
+            return null;
+        }
+
+        return staged.crc;
+    }
+
+    private static BasicFileAttributes attributesOf(File file) throws IOException
+    {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+
+    private static String[] withCrc(String[] checksums)
+    {
+        String[] names = Arrays.copyOf(checksums, checksums.length + 1);
+        names[checksums.length] = Checksum.CRC32;
+        return names;
+    }
+
+    private String[] copyTo(File destination, File source, Metrics.Timer timer, String... checksums) throws IOException, NoSuchAlgorithmException
+    {
+        String[] values = cache == null ? null : cache.get(source, checksums);
+
+        if (values != null)
+        {
+            FileUtil.transfer(source, destination);
+        }
+        else if (cache == null)
+        {
+            values = Checksum.copy(source, destination, checksums);
+        }
+        else
+        {
+            String stamp = ChecksumCache.stampOf(source);
+            values = Checksum.copy(source, destination, checksums);
+            cache.put(source, stamp, checksums, values);
+        }
+
+        timer.read(destination.length());
+        timer.written(destination.length());
+        return values;
+    }
+
+    /*
+     * Only counts as a read if the cache didn't already know
+     */
+    private String[] hash(File source, Metrics.Timer timer, String... checksums) throws IOException, NoSuchAlgorithmException
+    {
+        String[] values = cache == null ? null : cache.get(source, checksums);
+
+        if (values == null)
+        {
+            String stamp = cache == null ? null : ChecksumCache.stampOf(source);
+            values = Checksum.calculate(source, checksums);
+            timer.read(source.length());
+
+            if (cache != null)
+            {
+                cache.put(source, stamp, checksums, values);
+            }
+        }
+
+        return values;
+    }
+
+    /*
+     * Links fail across filesystems and on filesystems without
+     * them, in which case it's back to copying
+     */
+    private static boolean tryLink(File source, File destination)
+    {
+        try
+        {
+            Files.createLink(destination.toPath(), source.toPath());
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            return false;
+        }
+    }
+
+    private File prepare(String path)
+    {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    private static void publish(File target, File destination) throws IOException
+    {
+        Files.move(target.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Gets rid of the temporary file if something went wrong
+     * before it could be moved into place
+     */
+    private static void discard(File target) throws IOException
+    {
+        Files.deleteIfExists(target.toPath());
+    }
+}
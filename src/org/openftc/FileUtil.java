@@ -21,45 +21,208 @@
 
 package org.openftc;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 class FileUtil
 {
-    static void dumpRawAsciiToDisk(String ascii, File out) throws IOException
+    /*
+     * Only the small text files we generate are worth DEFLATing;
+     * AARs and JARs are ZIPs already, so compressing them again
+     * just burns CPU for no gain
+     */
+    private static final String[] COMPRESSIBLE_EXTENSIONS =
+            {".pom", ".xml", "." + Checksum.MD5, "." + Checksum.SHA1, "." + Checksum.SHA256, "." + Checksum.SHA512};
+
+    static boolean isCompressible(String name)
+    {
+        for (String extension : COMPRESSIBLE_EXTENSIONS)
+        {
+            if (name.endsWith(extension))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Returns the comment of the ZIP file, or null if it
+     * has none or isn't a readable ZIP
+     */
+    static String zipComment(File zipFile) throws IOException
+    {
+        try (ZipFile zip = new ZipFile(zipFile))
+        {
+            return zip.getComment();
+        }
+        catch (ZipException e)
+        {
+            return null;
+        }
+    }
+
+    /*
+     * The contents of one entry of a ZIP, or null if it isn't there
+     * (or the file isn't a ZIP at all)
+     */
+    static byte[] readZipEntry(File zipFile, String name) throws IOException
+    {
+        try (ZipFile zip = new ZipFile(zipFile))
+        {
+            ZipEntry entry = zip.getEntry(name);
+
+            if (entry == null)
+            {
+                return null;
+            }
+
+            try (InputStream is = zip.getInputStream(entry))
+            {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = is.read(buffer)) > 0)
+                {
+                    os.write(buffer, 0, read);
+                }
+
+                return os.toByteArray();
+            }
+        }
+        catch (ZipException e)
+        {
+            return null;
+        }
+    }
+
+    /*
+     * Adds every file under dirPath to the ZIP, named by its path
+     * relative to dirPath. Returns the total size of the files.
+     */
+    static long zipDir(String dirPath, ZipWriter zip) throws IOException
     {
-        FileOutputStream fileOutputStream = new FileOutputStream(out.getAbsolutePath());
-        fileOutputStream.write(ascii.getBytes(Charset.forName("ASCII")));
-        fileOutputStream.flush();
-        fileOutputStream.close();
+        return zipDir(dirPath, zip, null);
     }
 
-    static void zipDir(String dirPath) throws IOException
+    /*
+     * Same again, for a folder staged by the given writer, which may
+     * already know the CRC-32 of some of the files so those only need
+     * to be read the once
+     */
+    static long zipDir(String dirPath, ZipWriter zip, DirectoryWriter staging) throws IOException
     {
         Path sourceDir = Paths.get(dirPath);
-        String zipFileName = dirPath.concat(".zip");
 
-        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(zipFileName));
+        /*
+         * Files are streamed through fixed buffers, so memory use
+         * stays the same no matter how big the artifact is
+         */
+        byte[] buffer = new byte[65536];
+
+        /*
+         * Collect the files up front so they always go into the ZIP
+         * in the same order, however they were laid out on disk
+         */
+        List<Path> files = new ArrayList<>();
         Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>()
         {
             @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
             {
-                Path targetFile = sourceDir.relativize(file);
-                outputStream.putNextEntry(new ZipEntry(targetFile.toString()));
-                byte[] bytes = Files.readAllBytes(file);
-                outputStream.write(bytes, 0, bytes.length);
-                outputStream.closeEntry();
+                files.add(file);
                 return FileVisitResult.CONTINUE;
             }
         });
-        outputStream.close();
+        Collections.sort(files);
+        long total = 0;
+
+        for (Path file : files)
+        {
+            String targetFile = sourceDir.relativize(file).toString();
+            total += Files.size(file);
+
+            if (zip.shouldDeflate(targetFile))
+            {
+                zip.writeDeflated(targetFile, file.toFile());
+            }
+            else
+            {
+                Long crc = staging == null ? null : staging.crc(targetFile.replace(File.separatorChar, '/'));
+                zip.writeStored(targetFile, file.toFile(), crc != null ? crc : crc32(file, buffer));
+            }
+        }
+
+        return total;
+    }
+
+    private static long crc32(Path file, byte[] buffer) throws IOException
+    {
+        CRC32 crc = new CRC32();
+
+        try (InputStream is = Files.newInputStream(file))
+        {
+            int read;
+
+            while ((read = is.read(buffer)) > 0)
+            {
+                crc.update(buffer, 0, read);
+            }
+        }
+
+        return crc.getValue();
+    }
+
+    /*
+     * Copies a file channel to channel, which lets the kernel move
+     * the bytes (sendfile/copy_file_range on Linux) rather than
+     * pulling them through a buffer of ours
+     */
+    static void transfer(File source, File destination) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            long size = in.size();
+            long position = 0;
+
+            while (position < size)
+            {
+                long transferred = in.transferTo(position, size - position, out);
+
+                if (transferred <= 0)
+                {
+                    throw new IOException("Unexpected end of " + source);
+                }
+
+                position += transferred;
+            }
+        }
+    }
+
+    /*
+     * A name to write destination under until it's complete. Hidden,
+     * and unique enough that other writers of the same folder won't
+     * trip over it.
+     */
+    static File temporaryFor(File destination)
+    {
+        return new File(destination.getAbsoluteFile().getParentFile(), "." + destination.getName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
     }
 
     static void deleteFolder(File folder)
@@ -70,7 +233,10 @@ class FileUtil
         {
             for (File f : files)
             {
-                if (f.isDirectory())
+                /*
+                 * Never follow a link out of the folder
+                 */
+                if (Files.isDirectory(f.toPath(), LinkOption.NOFOLLOW_LINKS))
                 {
                     deleteFolder(f);
                 }
@@ -24,52 +24,127 @@ package org.openftc;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.Parameters;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.PrintStream;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 
+/*
+ * Options take their value either as the next argument or after an
+ * '=' (--connect=7345), the way most tools accept them
+ */
+@Parameters(separators = "= ")
 public class Main
 {
     @Parameter(names = "-h", help = true, description = "Print help")
     private boolean help;
 
-    @Parameter(names = {"-i", "--input"}, description = "AAR/JAR input file", required = true)
+    @Parameter(names = {"-i", "--input"}, description = "AAR/JAR input file")
     private String inputFilepath;
 
     @Parameter(names = {"-s", "--sources"}, description = "Sources JAR file (optional)", required = false)
     private String sourcesFilepath;
 
-    @Parameter(names = {"-o", "--output"}, description = "ZIP Output file", required = true)
+    @Parameter(names = {"-o", "--output"}, description = "ZIP Output file, or output folder in batch mode")
     private String outputFilepath;
 
-    @Parameter(names = {"-g", "--group"}, description = "Group name", required = true)
+    @Parameter(names = {"-r", "--repository"}, description = "Maven repository folder to write straight into, instead of a ZIP")
+    private String repositoryFilepath;
+
+    @Parameter(names = "--reindex", description = "Rewrite every maven-metadata.xml in this repository folder from the versions in it, using -j threads")
+    private String reindexFilepath;
+
+    @Parameter(names = {"-g", "--group"}, description = "Group name")
     private String groupName;
 
-    @Parameter(names = {"-a", "--artifact"}, description = "Artifact name", required = true)
+    @Parameter(names = {"-a", "--artifact"}, description = "Artifact name")
     private String artifactName;
 
-    @Parameter(names = {"-v", "--version"}, description = "Artifact version", required = true)
+    @Parameter(names = {"-v", "--version"}, description = "Artifact version")
     private String artifactVersion;
 
-    private String artifactExtension;
-    private String artifactPackaging;
-    private static final String ARTIFACT_PACKAGING_AAR = "aar";
-    private static final String ARTIFACT_PACKAGING_JAR = "jar";
-    private static final String AAR_FILE_EXTENSION = ".aar";
-    private static final String JAR_FILE_EXTENSION = ".jar";
+    @Parameter(names = {"-b", "--batch"}, description = "Manifest with one input,sources,group,artifact,version line per artifact, used instead of -i/-s/-g/-a/-v")
+    private String batchFilepath;
+
+    @Parameter(names = "--combined", description = "In batch mode, put every artifact in the single ZIP given by -o rather than one ZIP each")
+    private boolean combinedOutput;
+
+    @Parameter(names = {"-j", "--jobs"}, description = "Number of artifacts to process in parallel in batch mode")
+    private int jobs = 1;
+
+    @Parameter(names = "--checksums", description = "Checksum files to generate (md5, sha1, sha256, sha512)")
+    private List<String> checksums = Arrays.asList(Checksum.MD5, Checksum.SHA1);
+
+    @Parameter(names = "--checksum-cache", description = "Index file used to remember input checksums between runs")
+    private String checksumCacheFilepath;
+
+    @Parameter(names = "--merge", description = "Existing repository ZIP whose entries are carried over into the output (may be the output itself)")
+    private String mergeFilepath;
+
+    @Parameter(names = "--incremental", description = "Leave an existing output ZIP alone if it was built from the same inputs, coordinates and options")
+    private boolean incremental;
+
+    @Parameter(names = "--metrics", description = "Print how long each stage took and how much data it moved")
+    private boolean printMetrics;
+
+    @Parameter(names = "--metrics-out", description = "Write the per-stage metrics to this file as JSON")
+    private String metricsFilepath;
+
+    @Parameter(names = "--stream", description = "Write the ZIP directly instead of staging the files on disk first")
+    private boolean streamOutput;
+
+    @Parameter(names = "--compression-level", description = "DEFLATE level (0-9) for the POM, metadata and checksum files")
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    @Parameter(names = "--deflate-archives", description = "Compress the AAR/JAR and sources JAR too (in parallel) instead of storing them as-is")
+    private boolean deflateArchives;
+
+    @Parameter(names = "--daemon", description = "Stay running and serve --connect clients on this localhost port (0 picks a free one)")
+    private Integer daemonPort;
+
+    @Parameter(names = "--connect", description = "Hand the run to the daemon on this port, or do it here if none is running")
+    private Integer connectPort;
+
+    @Parameter(names = Daemon.SHUTDOWN, description = "With --connect, stop the daemon")
+    private boolean shutdown;
+
+    private PrintStream out = System.out;
+    private Metrics metrics;
 
     public static void main(String[] args) throws IOException, NoSuchAlgorithmException
+    {
+        int status = execute(args, null, System.out, System.err);
+
+        if (status != 0)
+        {
+            System.exit(status);
+        }
+    }
+
+    /*
+     * Parses the arguments and does the run, returning the exit status.
+     * The daemon passes the client's working folder, which relative
+     * paths are resolved against; it's null when running locally.
+     */
+    static int execute(String[] args, File workingFolder, PrintStream out, PrintStream err) throws IOException, NoSuchAlgorithmException
     {
         Main instance = new Main();
+        instance.out = out;
 
         JCommander jCommander =
                 JCommander.newBuilder()
@@ -83,166 +158,295 @@ public class Main
 
             if (instance.help)
             {
-                System.out.println("AAR/JAR Repackager v1.0");
-                jCommander.usage();
+                StringBuilder usage = new StringBuilder();
+                jCommander.usage(usage);
+                out.println("AAR/JAR Repackager v1.0");
+                out.print(usage);
+            }
+            else if (instance.connectPort != null)
+            {
+                if (workingFolder != null)
+                {
+                    throw new ParameterException("--connect can't be used through a daemon");
+                }
+
+                return Daemon.forward(instance.connectPort, instance.shutdown ? new String[] {Daemon.SHUTDOWN} : withoutConnect(args), out, err);
+            }
+            else if (instance.shutdown)
+            {
+                throw new ParameterException("--shutdown needs --connect");
+            }
+            else if (instance.daemonPort != null)
+            {
+                if (workingFolder != null)
+                {
+                    throw new ParameterException("--daemon can't be used through a daemon");
+                }
+
+                if (instance.jobs < 1)
+                {
+                    throw new ParameterException("--jobs must be at least 1");
+                }
+
+                Daemon.serve(instance.daemonPort, instance.jobs, out);
             }
             else
             {
+                if (workingFolder != null)
+                {
+                    instance.resolvePaths(workingFolder);
+                }
+
                 instance.run();
             }
+
+            return 0;
         }
         catch (ParameterException e)
         {
-            System.err.println(e.getMessage() + "\nRun with -h for usage details");
+            err.println(e.getMessage() + "\nRun with -h for usage details");
+            return 1;
         }
     }
 
-
-    private void run() throws IOException, NoSuchAlgorithmException
+    /*
+     * The arguments to forward to the daemon, which shouldn't
+     * turn around and forward them again
+     */
+    private static String[] withoutConnect(String[] args)
     {
-        if(inputFilepath.endsWith(AAR_FILE_EXTENSION))
-        {
-            artifactExtension = AAR_FILE_EXTENSION;
-            artifactPackaging = ARTIFACT_PACKAGING_AAR;
-        }
-        else if(inputFilepath.endsWith(JAR_FILE_EXTENSION))
+        List<String> forwarded = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++)
         {
-            artifactExtension = JAR_FILE_EXTENSION;
-            artifactPackaging = ARTIFACT_PACKAGING_JAR;
+            if (args[i].equals("--connect"))
+            {
+                i++;
+            }
+            else if (!args[i].startsWith("--connect="))
+            {
+                forwarded.add(args[i]);
+            }
         }
-        else
+
+        return forwarded.toArray(new String[0]);
+    }
+
+    /*
+     * The daemon's working folder isn't the client's, so make
+     * every path the client gave us absolute
+     */
+    private void resolvePaths(File workingFolder)
+    {
+        inputFilepath = resolve(workingFolder, inputFilepath);
+        sourcesFilepath = resolve(workingFolder, sourcesFilepath);
+        outputFilepath = resolve(workingFolder, outputFilepath);
+        repositoryFilepath = resolve(workingFolder, repositoryFilepath);
+        reindexFilepath = resolve(workingFolder, reindexFilepath);
+        batchFilepath = resolve(workingFolder, batchFilepath);
+        checksumCacheFilepath = resolve(workingFolder, checksumCacheFilepath);
+        mergeFilepath = resolve(workingFolder, mergeFilepath);
+        metricsFilepath = resolve(workingFolder, metricsFilepath);
+    }
+
+    private static String resolve(File workingFolder, String path)
+    {
+        if (path == null || new File(path).isAbsolute())
         {
-            throw new RuntimeException("Was not given JAR or AAR as input");
+            return path;
         }
 
-        String[] groupNames = groupName.split("\\.");
+        return new File(workingFolder, path).getPath();
+    }
 
-        StringBuilder stringBuilder = new StringBuilder();
+    private void run() throws IOException, NoSuchAlgorithmException
+    {
+        metrics = new Metrics(printMetrics || metricsFilepath != null);
 
-        /*
-         * Trim off the extension because it will be added
-         * when we ZIP the directory
-         */
-        if(outputFilepath.endsWith(".zip"))
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
         {
-            outputFilepath = outputFilepath.substring(0, outputFilepath.lastIndexOf('.'));
+            throw new ParameterException("--compression-level must be 0-9 (or -1 for the default), not " + compressionLevel);
         }
 
-        stringBuilder.append(outputFilepath);
-
-        for (String s : groupNames)
+        for (String checksum : checksums)
         {
-            stringBuilder.append(File.separator).append(s).append(File.separator);
+            if (!Checksum.SUPPORTED.contains(checksum))
+            {
+                throw new ParameterException("--checksums: unsupported checksum " + checksum + ", pick from " + String.join(", ", Checksum.SUPPORTED));
+            }
         }
 
-        stringBuilder.append(artifactName);
+        if (new HashSet<>(checksums).size() != checksums.size())
+        {
+            throw new ParameterException("--checksums: the same checksum was given more than once");
+        }
 
-        File folderToPutMetadataIn = new File(stringBuilder.toString());
+        if (reindexFilepath != null)
+        {
+            if (jobs < 1)
+            {
+                throw new ParameterException("--jobs must be at least 1");
+            }
 
-        stringBuilder.append(File.separator).append(artifactVersion).append(File.separator);
+            int count = new Reindexer(new File(reindexFilepath), checksums, metrics).reindex(jobs);
+            out.println("Rewrote " + count + " metadata files");
+        }
+        else if ((outputFilepath == null) == (repositoryFilepath == null))
+        {
+            throw new ParameterException("Exactly one of -o or -r is required");
+        }
+        else if (repositoryFilepath != null && (streamOutput || incremental || mergeFilepath != null))
+        {
+            throw new ParameterException("--stream, --incremental and --merge only apply to ZIP output");
+        }
+        else if (batchFilepath == null)
+        {
+            if (inputFilepath == null || groupName == null || artifactName == null || artifactVersion == null)
+            {
+                throw new ParameterException("The following options are required: -i, -g, -a, -v (or -b for batch mode)");
+            }
 
-        File folderToPutArtifactIn = new File(stringBuilder.toString());
+            Artifact artifact = new Artifact(
+                    new File(inputFilepath),
+                    sourcesFilepath == null ? null : new File(sourcesFilepath),
+                    groupName,
+                    artifactName,
+                    artifactVersion);
 
-        folderToPutArtifactIn.mkdirs();
+            try (Repackager repackager = newRepackager(null))
+            {
+                repackage(repackager, Collections.singletonList(artifact), outputFile(outputFilepath));
+            }
+        }
+        else
+        {
+            if (jobs < 1)
+            {
+                throw new ParameterException("--jobs must be at least 1");
+            }
 
-        String nameOfAarArtifact = artifactName + "-" + artifactVersion + artifactExtension;
-        String fullPathToArtifact = folderToPutArtifactIn.getAbsolutePath() + File.separator + nameOfAarArtifact;
+            List<Artifact> artifacts = Artifact.readManifest(new File(batchFilepath));
+            ExecutorService executor = Executors.newFixedThreadPool(jobs);
 
-        /*
-         * Copy the artifact into the correct path
-         */
-        Files.copy(Paths.get(inputFilepath), Paths.get(fullPathToArtifact), StandardCopyOption.REPLACE_EXISTING);
+            try
+            {
+                if (combinedOutput || repositoryFilepath != null)
+                {
+                    try (Repackager repackager = newRepackager(executor))
+                    {
+                        repackage(repackager, artifacts, outputFile(outputFilepath));
+                    }
+                }
+                else
+                {
+                    File outputFolder = new File(outputFilepath);
+                    checkZipNames(artifacts);
+                    outputFolder.mkdirs();
+
+                    try (Repackager repackager = newRepackager(null))
+                    {
+                        List<Future<?>> futures = new ArrayList<>();
+
+                        for (Artifact artifact : artifacts)
+                        {
+                            File outputFile = new File(outputFolder, artifact.zipName());
+
+                            futures.add(executor.submit(() ->
+                            {
+                                repackage(repackager, Collections.singletonList(artifact), outputFile);
+                                return null;
+                            }));
+                        }
+
+                        Repackager.await(futures);
+                    }
+                }
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
 
-        /*
-         * Add the checksum files for the artifact
-         */
-        String artifact_md5 = Checksum.calculateMD5(new File(fullPathToArtifact));
-        String artifact_sha1 = Checksum.calculateSHA1(new File(fullPathToArtifact));
-        FileUtil.dumpRawAsciiToDisk(artifact_md5, new File(fullPathToArtifact + ".md5"));
-        FileUtil.dumpRawAsciiToDisk(artifact_sha1, new File(fullPathToArtifact + ".sha1"));
+        if (printMetrics)
+        {
+            metrics.printSummary(out);
+        }
 
-        /*
-         * Copy the POM file to the artifact folder
-         */
-        String nameOfPom = artifactName + "-" + artifactVersion + ".pom";
-        Path pathToPom = Paths.get(folderToPutArtifactIn.getAbsolutePath() + File.separator + nameOfPom);
-        Files.copy(getClass().getResourceAsStream("/artifact-pom.pom"), pathToPom, StandardCopyOption.REPLACE_EXISTING);
+        if (metricsFilepath != null)
+        {
+            metrics.writeJson(Paths.get(metricsFilepath));
+        }
+    }
 
-        /*
-         * Do a find and replace for the needed items in the POM
-         */
-        Charset charset = StandardCharsets.UTF_8;
-        String pomContent = new String(Files.readAllBytes(pathToPom), charset);
-        pomContent = pomContent
-                .replaceAll("GROUP_ID_HERE", groupName)
-                .replaceAll("ARTIFACT_ID_HERE", artifactName)
-                .replaceAll("ARTIFACT_VERSION_HERE", artifactVersion)
-                .replaceAll("ARTIFACT_EXTENSION_HERE", artifactPackaging);
-        Files.write(pathToPom, pomContent.getBytes(charset));
+    /*
+     * Group, artifact and version can still run together into the same
+     * name (and case-insensitive filesystems fold even more of them),
+     * so make sure no ZIP ends up overwriting another before starting
+     */
+    private static void checkZipNames(List<Artifact> artifacts)
+    {
+        Map<String, Artifact> byName = new HashMap<>();
 
-        /*
-         * Add checksum files for the POM
-         */
-        makeChecksumsForFile(pathToPom.toAbsolutePath().toString());
+        for (Artifact artifact : artifacts)
+        {
+            Artifact other = byName.put(artifact.zipName().toLowerCase(Locale.ROOT), artifact);
 
-        /*
-         * Copy the metadata file to the correct folder
-         */
-        Path pathToMetaData = Paths.get(folderToPutMetadataIn.getAbsolutePath() + File.separator + "maven-metadata.xml");
-        Files.copy(getClass().getResourceAsStream("/maven-metadata.xml"), pathToMetaData, StandardCopyOption.REPLACE_EXISTING);
+            if (other != null)
+            {
+                throw new ParameterException(artifact.coordinates() + " and " + other.coordinates() + " would both be written to " + artifact.zipName() + "; use --combined instead");
+            }
+        }
+    }
 
-        /*
-         * Do a find and replace for the needed items in the metadata
-         */
-        Charset charset2 = StandardCharsets.UTF_8;
-        String metadataContent = new String(Files.readAllBytes(pathToMetaData), charset2);
-        metadataContent = metadataContent
-                .replaceAll("GROUP_ID_HERE", groupName)
-                .replaceAll("ARTIFACT_ID_HERE", artifactName)
-                .replaceAll("ARTIFACT_VERSION_HERE", artifactVersion)
-                .replaceAll("ARTIFACT_DATE_HERE", new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()));
-        Files.write(pathToMetaData, metadataContent.getBytes(charset2));
+    private Repackager newRepackager(ExecutorService executor) throws IOException
+    {
+        return Repackager.builder()
+                .checksumCache(checksumCacheFilepath == null ? null : new File(checksumCacheFilepath))
+                .executor(executor)
+                .detailedMetrics(printMetrics || metricsFilepath != null)
+                .build();
+    }
 
-        /*
-         * Add checksum files for metadata
-         */
-        makeChecksumsForFile(pathToMetaData.toAbsolutePath().toString());
+    /*
+     * Packages the artifacts into outputFile, or into the
+     * repository folder if outputFile is null
+     */
+    private void repackage(Repackager repackager, List<Artifact> artifacts, File outputFile) throws IOException, NoSuchAlgorithmException
+    {
+        RepackageRequest request = RepackageRequest.builder()
+                .artifacts(artifacts)
+                .output(outputFile)
+                .repository(outputFile == null ? new File(repositoryFilepath) : null)
+                .checksums(checksums)
+                .compressionLevel(compressionLevel)
+                .deflateArchives(deflateArchives)
+                .stream(streamOutput)
+                .incremental(incremental)
+                .merge(mergeFilepath == null ? null : new File(mergeFilepath))
+                .build();
+
+        RepackageResult result = repackager.repackage(request);
+
+        if (result.upToDate())
+        {
+            out.println(outputFile + " is up to date");
+        }
 
-        /*
-         * Do we need to process a sources JAR too?
-         */
-        if (sourcesFilepath != null)
-        {
-            /*
-             * Ok so looks like we do have a source archive
-             * First, copy it into the correct folder
-             */
-            String nameOfSourcesArchive = artifactName + "-" + artifactVersion + "-sources.jar";
-            String fullPathToSourcesArchive = folderToPutArtifactIn.getAbsolutePath() + File.separator + nameOfSourcesArchive;
-            Files.copy(Paths.get(sourcesFilepath), Paths.get(fullPathToSourcesArchive), StandardCopyOption.REPLACE_EXISTING);
-
-            /*
-             * Add checksum files for sources JAR
-             */
-            makeChecksumsForFile(fullPathToSourcesArchive);
-        }
-
-        /*
-         * Alright we're all done, ZIP it up!
-         */
-        FileUtil.zipDir(outputFilepath);
-
-        /*
-         * A little clean up before we get out of dodge
-         */
-        FileUtil.deleteFolder(new File(outputFilepath));
+        metrics.addAll(result.metrics);
     }
 
-    private void makeChecksumsForFile(String path) throws IOException, NoSuchAlgorithmException
+    /*
+     * The ZIP to write for the -o given, which gets a .zip
+     * extension if it doesn't have one already
+     */
+    private static File outputFile(String path)
     {
-        String md5 = Checksum.calculateMD5(new File(path));
-        String sha1 = Checksum.calculateSHA1(new File(path));
-        FileUtil.dumpRawAsciiToDisk(md5, new File(path + ".md5"));
-        FileUtil.dumpRawAsciiToDisk(sha1, new File(path + ".sha1"));
+        if (path == null)
+        {
+            return null;
+        }
+
+        return new File(path.endsWith(".zip") ? path : path + ".zip");
     }
 }
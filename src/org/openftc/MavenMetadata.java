@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Reading and writing the maven-metadata.xml that lists every version
+ * of an artifact. Versions are sorted the way Maven sorts them, at
+ * least for the kinds of version strings seen in practice.
+ */
+class MavenMetadata
+{
+    static final String FILE_NAME = "maven-metadata.xml";
+
+    private static final String TEMPLATE = "/maven-metadata.xml";
+    private static final String VERSION_TEMPLATE = "/maven-metadata-version.xml";
+    private static final Pattern VERSIONS = Pattern.compile("<versions>(.*?)</versions>", Pattern.DOTALL);
+    private static final Pattern VERSION = Pattern.compile("<version>\\s*(.*?)\\s*</version>", Pattern.DOTALL);
+
+    /*
+     * Qualifiers Maven knows about, from oldest to newest. A plain
+     * release sits where the empty string is; anything not listed
+     * here sorts after all of these, alphabetically.
+     */
+    private static final List<String> QUALIFIERS = Arrays.asList("alpha", "beta", "milestone", "rc", "snapshot", "", "sp");
+    private static final Map<String, String> QUALIFIER_ALIASES = new HashMap<>();
+
+    static
+    {
+        QUALIFIER_ALIASES.put("a", "alpha");
+        QUALIFIER_ALIASES.put("b", "beta");
+        QUALIFIER_ALIASES.put("m", "milestone");
+        QUALIFIER_ALIASES.put("cr", "rc");
+        QUALIFIER_ALIASES.put("ga", "");
+        QUALIFIER_ALIASES.put("final", "");
+        QUALIFIER_ALIASES.put("release", "");
+    }
+
+    static final Comparator<String> VERSION_ORDER = MavenMetadata::compareVersions;
+
+    /*
+     * The versions listed in an existing metadata file
+     */
+    static List<String> readVersions(byte[] content)
+    {
+        List<String> versions = new ArrayList<>();
+        Matcher block = VERSIONS.matcher(new String(content, StandardCharsets.UTF_8));
+
+        while (block.find())
+        {
+            Matcher version = VERSION.matcher(block.group(1));
+
+            while (version.find())
+            {
+                versions.add(unescapeXml(version.group(1)));
+            }
+        }
+
+        return versions;
+    }
+
+    /*
+     * Renders the metadata for the given versions, which can be in
+     * any order and have duplicates. The newest is <latest>, and the
+     * newest that isn't a snapshot is <release> (or the newest of all
+     * if they are all snapshots, as before versions were merged).
+     */
+    static byte[] render(String groupName, String artifactName, Collection<String> versions, String lastUpdated) throws IOException
+    {
+        TreeSet<String> sorted = new TreeSet<>(VERSION_ORDER);
+        sorted.addAll(versions);
+
+        String latest = sorted.last();
+        String release = latest;
+
+        for (String version : sorted.descendingSet())
+        {
+            if (!isSnapshot(version))
+            {
+                release = version;
+                break;
+            }
+        }
+
+        Template versionTemplate = Template.load(VERSION_TEMPLATE);
+        ByteArrayOutputStream versionLines = new ByteArrayOutputStream();
+        Map<String, String> values = new HashMap<>();
+
+        for (String version : sorted)
+        {
+            values.put("ARTIFACT_VERSION_HERE", version);
+            byte[] line = versionTemplate.render(values);
+            versionLines.write(line, 0, line.length);
+        }
+
+        values.clear();
+        values.put("GROUP_ID_HERE", groupName);
+        values.put("ARTIFACT_ID_HERE", artifactName);
+        values.put("ARTIFACT_LATEST_HERE", latest);
+        values.put("ARTIFACT_RELEASE_HERE", release);
+        values.put("ARTIFACT_DATE_HERE", lastUpdated);
+
+        Map<String, byte[]> fragments = new HashMap<>();
+        fragments.put("ARTIFACT_VERSIONS_HERE", versionLines.toByteArray());
+
+        return Template.load(TEMPLATE).render(values, fragments);
+    }
+
+    /*
+     * Both templates go into the output, so a change to either
+     * should make incremental builds start over
+     */
+    static String templateSource() throws IOException
+    {
+        return Template.load(TEMPLATE).source() + Template.load(VERSION_TEMPLATE).source();
+    }
+
+    static boolean isSnapshot(String version)
+    {
+        return version.toUpperCase(Locale.ROOT).endsWith("SNAPSHOT");
+    }
+
+    /*
+     * A cut-down version of Maven's ComparableVersion. The version is
+     * split into numbers and qualifiers at dots, dashes and wherever
+     * digits meet letters; numbers compare as numbers, qualifiers by
+     * how far along the release cycle they are, and trailing zeros and
+     * release qualifiers don't count, so 1 = 1.0 = 1.0.0-final.
+     */
+    static int compareVersions(String a, String b)
+    {
+        List<Object> left = items(a);
+        List<Object> right = items(b);
+
+        for (int i = 0; i < Math.max(left.size(), right.size()); i++)
+        {
+            Object l = i < left.size() ? left.get(i) : null;
+            Object r = i < right.size() ? right.get(i) : null;
+            int result = compareItems(l, r);
+
+            if (result != 0)
+            {
+                return result;
+            }
+        }
+
+        /*
+         * Equal as far as ordering goes, but still different strings,
+         * so keep them apart for anything using this in a sorted set
+         */
+        return a.compareTo(b);
+    }
+
+    private static List<Object> items(String version)
+    {
+        List<Object> items = new ArrayList<>();
+        String lower = version.toLowerCase(Locale.ROOT);
+        int start = 0;
+
+        for (int i = 1; i <= lower.length(); i++)
+        {
+            boolean end = i == lower.length();
+
+            if (end || lower.charAt(i) == '.' || lower.charAt(i) == '-'
+                    || Character.isDigit(lower.charAt(i)) != Character.isDigit(lower.charAt(i - 1)))
+            {
+                String token = lower.substring(start, i);
+
+                if (!token.isEmpty() && !token.equals(".") && !token.equals("-"))
+                {
+                    items.add(Character.isDigit(token.charAt(0)) ? (Object) new BigInteger(token) : normalize(token));
+                }
+
+                start = end || Character.isLetterOrDigit(lower.charAt(i)) ? i : i + 1;
+            }
+        }
+
+        /*
+         * Trailing zeros and release qualifiers don't change anything
+         */
+        while (!items.isEmpty() && (BigInteger.ZERO.equals(items.get(items.size() - 1)) || "".equals(items.get(items.size() - 1))))
+        {
+            items.remove(items.size() - 1);
+        }
+
+        return items;
+    }
+
+    private static String normalize(String qualifier)
+    {
+        String alias = QUALIFIER_ALIASES.get(qualifier);
+        return alias != null ? alias : qualifier;
+    }
+
+    /*
+     * A missing item counts as zero next to a number and as a plain
+     * release next to a qualifier; a number is always newer than a
+     * qualifier in the same spot (1.1 > 1-rc)
+     */
+    private static int compareItems(Object l, Object r)
+    {
+        if (l == null)
+        {
+            return -compareItems(r, null);
+        }
+
+        if (l instanceof BigInteger)
+        {
+            if (r == null)
+            {
+                return ((BigInteger) l).signum();
+            }
+
+            return r instanceof BigInteger ? ((BigInteger) l).compareTo((BigInteger) r) : 1;
+        }
+
+        if (r instanceof BigInteger)
+        {
+            return -1;
+        }
+
+        return compareQualifiers((String) l, r == null ? "" : (String) r);
+    }
+
+    private static int compareQualifiers(String l, String r)
+    {
+        int leftRank = QUALIFIERS.indexOf(l);
+        int rightRank = QUALIFIERS.indexOf(r);
+
+        if (leftRank < 0 && rightRank < 0)
+        {
+            return l.compareTo(r);
+        }
+
+        return Integer.compare(leftRank < 0 ? QUALIFIERS.size() : leftRank, rightRank < 0 ? QUALIFIERS.size() : rightRank);
+    }
+
+    private static String unescapeXml(String value)
+    {
+        return value.replace("&lt;", "<")
+                .replace("&gt;", ">")
+                .replace("&quot;", "\"")
+                .replace("&apos;", "'")
+                .replace("&amp;", "&");
+    }
+}
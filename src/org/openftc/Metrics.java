@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Per-stage totals of wall time, CPU time, bytes moved and memory
+ * allocated. CPU time and allocation are measured on the thread that
+ * runs the stage, so work a stage hands off to another pool (like the
+ * parallel deflater) only shows up in its wall time.
+ *
+ * Getting hold of the thread MXBean drags in a good chunk of the
+ * management classes, which is noticeable at startup, so CPU time and
+ * allocation are only measured when asked for. Wall time and byte
+ * counts are always kept.
+ */
+class Metrics
+{
+    private final Map<String, Totals> stages = new LinkedHashMap<>();
+    private final long started = System.nanoTime();
+    private final boolean detailed;
+
+    Metrics(boolean detailed)
+    {
+        this.detailed = detailed;
+    }
+
+    /*
+     * Only loaded the first time a detailed timer needs it
+     */
+    private static class Threads
+    {
+        static final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    }
+
+    private static class Totals
+    {
+        int count;
+        long wallNanos;
+        long cpuNanos;
+        long bytesRead;
+        long bytesWritten;
+        long allocatedBytes;
+    }
+
+    /*
+     * One timed run of a stage; closing it adds it to the totals
+     */
+    class Timer implements AutoCloseable
+    {
+        private final String stage;
+        private final long wallStart = System.nanoTime();
+        private final long cpuStart;
+        private final long allocatedStart;
+        private long bytesRead;
+        private long bytesWritten;
+
+        private Timer(String stage)
+        {
+            this.stage = stage;
+            this.cpuStart = detailed ? cpuTime() : 0;
+            this.allocatedStart = detailed ? allocatedBytes() : 0;
+        }
+
+        void read(long bytes)
+        {
+            bytesRead += bytes;
+        }
+
+        void written(long bytes)
+        {
+            bytesWritten += bytes;
+        }
+
+        @Override
+        public void close()
+        {
+            long wall = System.nanoTime() - wallStart;
+            long cpu = detailed ? cpuTime() - cpuStart : 0;
+            long allocated = detailed ? allocatedBytes() - allocatedStart : 0;
+
+            synchronized (stages)
+            {
+                Totals totals = stages.computeIfAbsent(stage, k -> new Totals());
+                totals.count++;
+                totals.wallNanos += wall;
+                totals.cpuNanos += cpu;
+                totals.bytesRead += bytesRead;
+                totals.bytesWritten += bytesWritten;
+                totals.allocatedBytes += allocated;
+            }
+        }
+    }
+
+    Timer time(String stage)
+    {
+        return new Timer(stage);
+    }
+
+    /*
+     * Folds another set of totals into this one
+     */
+    void addAll(Metrics other)
+    {
+        for (Map.Entry<String, Totals> e : other.snapshot())
+        {
+            Totals from = e.getValue();
+
+            synchronized (stages)
+            {
+                Totals totals = stages.computeIfAbsent(e.getKey(), k -> new Totals());
+                totals.count += from.count;
+                totals.wallNanos += from.wallNanos;
+                totals.cpuNanos += from.cpuNanos;
+                totals.bytesRead += from.bytesRead;
+                totals.bytesWritten += from.bytesWritten;
+                totals.allocatedBytes += from.allocatedBytes;
+            }
+        }
+    }
+
+    Map<String, Long> wallNanos()
+    {
+        Map<String, Long> wallNanos = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Totals> e : snapshot())
+        {
+            wallNanos.put(e.getKey(), e.getValue().wallNanos);
+        }
+
+        return wallNanos;
+    }
+
+    void printSummary(PrintStream out)
+    {
+        out.printf("%-16s %6s %10s %10s %12s %12s %12s%n", "stage", "count", "wall ms", "cpu ms", "read", "written", "allocated");
+
+        for (Map.Entry<String, Totals> e : snapshot())
+        {
+            Totals totals = e.getValue();
+            out.printf("%-16s %6d %10.1f %10.1f %12d %12d %12d%n",
+                    e.getKey(),
+                    totals.count,
+                    totals.wallNanos / 1e6,
+                    totals.cpuNanos / 1e6,
+                    totals.bytesRead,
+                    totals.bytesWritten,
+                    totals.allocatedBytes);
+        }
+
+        out.printf("total wall time %.1f ms%n", (System.nanoTime() - started) / 1e6);
+    }
+
+    void writeJson(Path path) throws IOException
+    {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8))
+        {
+            writer.write("{\n  \"wallNanos\": " + (System.nanoTime() - started) + ",\n  \"stages\": [");
+
+            String separator = "\n";
+
+            for (Map.Entry<String, Totals> e : snapshot())
+            {
+                Totals totals = e.getValue();
+                writer.write(separator
+                        + "    {\"name\": \"" + e.getKey() + "\""
+                        + ", \"count\": " + totals.count
+                        + ", \"wallNanos\": " + totals.wallNanos
+                        + ", \"cpuNanos\": " + totals.cpuNanos
+                        + ", \"bytesRead\": " + totals.bytesRead
+                        + ", \"bytesWritten\": " + totals.bytesWritten
+                        + ", \"allocatedBytes\": " + totals.allocatedBytes + "}");
+                separator = ",\n";
+            }
+
+            writer.write("\n  ]\n}\n");
+        }
+    }
+
+    private List<Map.Entry<String, Totals>> snapshot()
+    {
+        synchronized (stages)
+        {
+            return new ArrayList<>(stages.entrySet());
+        }
+    }
+
+    private static long cpuTime()
+    {
+        ThreadMXBean threads = Threads.bean;
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    /*
+     * Allocation tracking is a HotSpot extension, so it reads as
+     * zero anywhere else
+     */
+    private static long allocatedBytes()
+    {
+        ThreadMXBean threads = Threads.bean;
+
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+}
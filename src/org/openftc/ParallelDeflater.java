@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * Compresses a file into a raw DEFLATE stream the way pigz does: the
+ * input is cut into blocks which are compressed on separate threads,
+ * each primed with the tail of the block before it as a dictionary and
+ * ended with a sync flush so the outputs can simply be laid end to end.
+ * The CRC32s of the blocks are combined into the CRC32 of the whole.
+ */
+class ParallelDeflater
+{
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /*
+     * Bounds how much of the file is held in memory at once
+     */
+    private static final int MAX_BLOCKS_IN_FLIGHT = THREADS * 2;
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, runnable ->
+    {
+        Thread thread = new Thread(runnable, "deflater");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Block
+    {
+        final byte[] compressed;
+        final long crc;
+        final int length;
+
+        Block(byte[] compressed, long crc, int length)
+        {
+            this.compressed = compressed;
+            this.crc = crc;
+            this.length = length;
+        }
+    }
+
+    /*
+     * Writes the compressed file to out, updating the digests with the
+     * uncompressed bytes on the way, and returns the CRC32 of the file
+     */
+    static long deflate(File source, int level, OutputStream out, MessageDigest... digests) throws IOException
+    {
+        Deque<Future<Block>> inFlight = new ArrayDeque<>();
+        long crc = 0;
+
+        try (InputStream is = new FileInputStream(source))
+        {
+            byte[] current = readBlock(is);
+            byte[] dictionary = null;
+
+            while (true)
+            {
+                /*
+                 * Read one block ahead so we know which one is the
+                 * last; only that one gets finished rather than flushed
+                 */
+                byte[] next = current.length < BLOCK_SIZE ? new byte[0] : readBlock(is);
+                boolean last = next.length == 0;
+
+                for (MessageDigest digest : digests)
+                {
+                    digest.update(current);
+                }
+
+                byte[] block = current;
+                byte[] blockDictionary = dictionary;
+
+                /*
+                 * Nothing to gain from the pool for a single block
+                 */
+                if (last && inFlight.isEmpty())
+                {
+                    Block compressed = compress(block, blockDictionary, level, true);
+                    out.write(compressed.compressed);
+                    return compressed.crc;
+                }
+
+                inFlight.add(pool.submit(() -> compress(block, blockDictionary, level, last)));
+
+                while (inFlight.size() >= MAX_BLOCKS_IN_FLIGHT || (last && !inFlight.isEmpty()))
+                {
+                    Block compressed = take(inFlight.removeFirst());
+                    out.write(compressed.compressed);
+                    crc = combine(crc, compressed.crc, compressed.length);
+                }
+
+                if (last)
+                {
+                    return crc;
+                }
+
+                dictionary = Arrays.copyOfRange(current, current.length - DICTIONARY_SIZE, current.length);
+                current = next;
+            }
+        }
+        finally
+        {
+            for (Future<Block> future : inFlight)
+            {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static byte[] readBlock(InputStream is) throws IOException
+    {
+        byte[] block = new byte[BLOCK_SIZE];
+        int length = 0;
+        int read;
+
+        while (length < BLOCK_SIZE && (read = is.read(block, length, BLOCK_SIZE - length)) > 0)
+        {
+            length += read;
+        }
+
+        return length == BLOCK_SIZE ? block : Arrays.copyOf(block, length);
+    }
+
+    private static Block compress(byte[] block, byte[] dictionary, int level, boolean last)
+    {
+        Deflater deflater = new Deflater(level, true);
+
+        try
+        {
+            if (dictionary != null)
+            {
+                deflater.setDictionary(dictionary);
+            }
+
+            deflater.setInput(block);
+
+            ByteArrayOutputStream os = new ByteArrayOutputStream(block.length / 2 + 64);
+            byte[] buffer = new byte[16384];
+            int length;
+
+            if (last)
+            {
+                deflater.finish();
+
+                while (!deflater.finished())
+                {
+                    length = deflater.deflate(buffer);
+                    os.write(buffer, 0, length);
+                }
+            }
+            else
+            {
+                /*
+                 * A sync flush leaves the output on a byte boundary,
+                 * and it is only complete once the buffer isn't filled
+                 */
+                do
+                {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    os.write(buffer, 0, length);
+                }
+                while (length == buffer.length);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(block);
+
+            return new Block(os.toByteArray(), crc.getValue(), block.length);
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    private static Block take(Future<Block> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    /*
+     * Given the CRC32s of two byte sequences and the length of the
+     * second, works out the CRC32 of the two joined together. This is
+     * crc32_combine() from zlib.
+     */
+    static long combine(long crc1, long crc2, long length2)
+    {
+        if (length2 <= 0)
+        {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        /*
+         * Operator for one zero bit in odd
+         */
+        odd[0] = 0xedb88320L;
+        long row = 1;
+
+        for (int n = 1; n < 32; n++)
+        {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        /*
+         * Operators for two and then four zero bits
+         */
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        /*
+         * Apply length2 zeros to crc1; the first square puts the
+         * operator for one zero byte, eight zero bits, in even
+         */
+        do
+        {
+            gf2MatrixSquare(even, odd);
+
+            if ((length2 & 1) != 0)
+            {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+
+            length2 >>= 1;
+
+            if (length2 == 0)
+            {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+
+            if ((length2 & 1) != 0)
+            {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+
+            length2 >>= 1;
+        }
+        while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector)
+    {
+        long sum = 0;
+        int i = 0;
+
+        while (vector != 0)
+        {
+            if ((vector & 1) != 0)
+            {
+                sum ^= matrix[i];
+            }
+
+            vector >>>= 1;
+            i++;
+        }
+
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix)
+    {
+        for (int n = 0; n < 32; n++)
+        {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+}
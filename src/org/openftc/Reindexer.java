@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Rebuilds every maven-metadata.xml in a repository folder from the
+ * versions actually in it. A version counts if its folder has the
+ * artifact-version.pom in it, which is how we (and Maven) lay it out:
+ *
+ *   group/path/artifact/version/artifact-version.pom
+ *
+ * Both finding the versions and writing the metadata are spread over
+ * a pool, since with tens of thousands of versions it's mostly waiting
+ * on the filesystem.
+ */
+class Reindexer
+{
+    private final Path root;
+    private final String[] checksums;
+    private final Metrics metrics;
+
+    /*
+     * Artifact folder, relative to the root, to the versions found in it
+     */
+    private final Map<Path, Set<String>> versions = new ConcurrentHashMap<>();
+
+    Reindexer(File root, List<String> checksums, Metrics metrics)
+    {
+        this.root = root.toPath();
+        this.checksums = checksums.toArray(new String[0]);
+        this.metrics = metrics;
+    }
+
+    /*
+     * Returns how many metadata files were written
+     */
+    int reindex(int threads) throws IOException, NoSuchAlgorithmException
+    {
+        if (!Files.isDirectory(root))
+        {
+            throw new IOException("Not a folder: " + root);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try
+        {
+            Metrics.Timer timer = metrics.time("scan");
+
+            try
+            {
+                pool.invoke(new Scan(root));
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+            finally
+            {
+                timer.close();
+            }
+
+            RepositoryWriter writer = DirectoryWriter.repository(root.toFile(), null);
+            String lastUpdated = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (Map.Entry<Path, Set<String>> e : versions.entrySet())
+            {
+                futures.add(pool.submit(() ->
+                {
+                    writeMetadata(writer, e.getKey(), e.getValue(), lastUpdated);
+                    return null;
+                }));
+            }
+
+            Repackager.await(futures);
+            return futures.size();
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private void writeMetadata(RepositoryWriter writer, Path artifactFolder, Set<String> versions, String lastUpdated) throws IOException, NoSuchAlgorithmException
+    {
+        String artifactName = artifactFolder.getFileName().toString();
+        StringBuilder groupName = new StringBuilder();
+        StringBuilder folder = new StringBuilder();
+
+        /*
+         * A folder can have a dot in its name, so the group can't be
+         * turned back into the path; it goes next to the versions it
+         * was found with
+         */
+        for (Path part : artifactFolder)
+        {
+            folder.append(folder.length() == 0 ? "" : "/").append(part);
+        }
+
+        for (Path part : artifactFolder.getParent())
+        {
+            groupName.append(groupName.length() == 0 ? "" : ".").append(part);
+        }
+
+        String path = folder + "/" + MavenMetadata.FILE_NAME;
+        byte[] content;
+        String[] values;
+
+        try (Metrics.Timer timer = metrics.time("render-metadata"))
+        {
+            content = MavenMetadata.render(groupName.toString(), artifactName, versions, lastUpdated);
+            values = Checksum.calculate(content, checksums);
+            timer.written(content.length);
+        }
+
+        try (Metrics.Timer timer = metrics.time("write"))
+        {
+            writer.write(path, content);
+            timer.written(content.length);
+
+            for (int i = 0; i < checksums.length; i++)
+            {
+                byte[] checksum = values[i].getBytes(StandardCharsets.US_ASCII);
+                writer.write(path + "." + checksums[i], checksum);
+                timer.written(checksum.length);
+            }
+        }
+    }
+
+    /*
+     * Looks through one folder, handing each subfolder to a task of its own
+     */
+    private class Scan extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+
+        Scan(Path folder)
+        {
+            this.folder = folder;
+        }
+
+        @Override
+        protected void compute()
+        {
+            List<Scan> subfolders = new ArrayList<>();
+
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(folder))
+            {
+                for (Path child : children)
+                {
+                    String name = child.getFileName().toString();
+
+                    if (name.startsWith("."))
+                    {
+                        continue;
+                    }
+
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS))
+                    {
+                        subfolders.add(new Scan(child));
+                    }
+                    else if (name.endsWith(".pom"))
+                    {
+                        found(child);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+
+            invokeAll(subfolders);
+        }
+
+        /*
+         * Counts the version if the POM is artifact/version/artifact-version.pom
+         */
+        private void found(Path pom)
+        {
+            Path versionFolder = pom.getParent();
+
+            /*
+             * There has to be at least one folder of group path
+             * above the artifact folder
+             */
+            if (versionFolder.equals(root) || versionFolder.getParent().equals(root) || versionFolder.getParent().getParent().equals(root))
+            {
+                return;
+            }
+
+            Path artifactFolder = versionFolder.getParent();
+
+            String version = versionFolder.getFileName().toString();
+            String artifactName = artifactFolder.getFileName().toString();
+
+            if (pom.getFileName().toString().equals(artifactName + "-" + version + ".pom"))
+            {
+                versions.computeIfAbsent(root.relativize(artifactFolder), k -> ConcurrentHashMap.newKeySet()).add(version);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/*
+ * Everything needed to produce one repository ZIP (or to add to a
+ * repository folder): the artifacts that go in it and the options that
+ * shape it. Build one with builder(); once
+ * built it can't change, so it's safe to hand between threads.
+ */
+public final class RepackageRequest
+{
+    final List<Artifact> artifacts;
+    final File outputFile;
+    final File repository;
+    final List<String> checksums;
+    final int compressionLevel;
+    final boolean deflateArchives;
+    final boolean stream;
+    final boolean incremental;
+    final File mergeFile;
+
+    private RepackageRequest(Builder builder)
+    {
+        this.artifacts = Collections.unmodifiableList(new ArrayList<>(builder.artifacts));
+        this.outputFile = builder.outputFile;
+        this.repository = builder.repository;
+        this.checksums = Collections.unmodifiableList(new ArrayList<>(builder.checksums));
+        this.compressionLevel = builder.compressionLevel;
+        this.deflateArchives = builder.deflateArchives;
+        this.stream = builder.stream;
+        this.incremental = builder.incremental;
+        this.mergeFile = builder.mergeFile;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /*
+     * The ZIP to be written, or null when writing into a repository
+     */
+    public File outputFile()
+    {
+        return outputFile;
+    }
+
+    /*
+     * The repository folder to be written into, or null when writing a ZIP
+     */
+    public File repository()
+    {
+        return repository;
+    }
+
+    public static final class Builder
+    {
+        private final List<Artifact> artifacts = new ArrayList<>();
+        private File outputFile;
+        private File repository;
+        private List<String> checksums = Arrays.asList(Checksum.MD5, Checksum.SHA1);
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private boolean deflateArchives;
+        private boolean stream;
+        private boolean incremental;
+        private File mergeFile;
+
+        private Builder()
+        {
+        }
+
+        /*
+         * Adds an AAR or JAR with its coordinates; sources may be null.
+         * Call it more than once to put several artifacts in one ZIP.
+         */
+        public Builder artifact(File input, File sources, String group, String artifact, String version)
+        {
+            artifacts.add(new Artifact(input, sources, group, artifact, version));
+            return this;
+        }
+
+        Builder artifacts(List<Artifact> artifacts)
+        {
+            this.artifacts.addAll(artifacts);
+            return this;
+        }
+
+        /*
+         * The ZIP to write, used as given
+         */
+        public Builder output(File outputFile)
+        {
+            this.outputFile = outputFile;
+            return this;
+        }
+
+        /*
+         * Write straight into this Maven repository folder instead of
+         * a ZIP. Every file goes in under a temporary name and is then
+         * renamed into place.
+         */
+        public Builder repository(File repository)
+        {
+            this.repository = repository;
+            return this;
+        }
+
+        /*
+         * Checksum files to generate next to each file (md5, sha1,
+         * sha256, sha512); md5 and sha1 by default
+         */
+        public Builder checksums(String... checksums)
+        {
+            return checksums(Arrays.asList(checksums));
+        }
+
+        public Builder checksums(List<String> checksums)
+        {
+            this.checksums = new ArrayList<>(checksums);
+            return this;
+        }
+
+        /*
+         * DEFLATE level (0-9) for the POM, metadata and checksum files
+         */
+        public Builder compressionLevel(int compressionLevel)
+        {
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /*
+         * Compress the AAR/JAR and sources JAR too, instead of storing them
+         */
+        public Builder deflateArchives(boolean deflateArchives)
+        {
+            this.deflateArchives = deflateArchives;
+            return this;
+        }
+
+        /*
+         * Write the ZIP directly instead of staging the files on disk first
+         */
+        public Builder stream(boolean stream)
+        {
+            this.stream = stream;
+            return this;
+        }
+
+        /*
+         * Leave an existing output alone if it was built from the same
+         * inputs, coordinates and options
+         */
+        public Builder incremental(boolean incremental)
+        {
+            this.incremental = incremental;
+            return this;
+        }
+
+        /*
+         * Existing repository ZIP whose entries are carried over into the
+         * output; may be the output itself
+         */
+        public Builder merge(File mergeFile)
+        {
+            this.mergeFile = mergeFile;
+            return this;
+        }
+
+        public RepackageRequest build()
+        {
+            if ((outputFile == null) == (repository == null))
+            {
+                throw new IllegalStateException("Give either an output file or a repository folder");
+            }
+
+            if (repository != null && (stream || incremental || mergeFile != null))
+            {
+                throw new IllegalStateException("Streaming, incremental builds and merging only apply to ZIP output");
+            }
+
+            if (artifacts.isEmpty())
+            {
+                throw new IllegalStateException("No artifacts given");
+            }
+
+            if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+            {
+                throw new IllegalStateException("Compression level must be 0-9 (or -1 for the default), not " + compressionLevel);
+            }
+
+            for (String checksum : checksums)
+            {
+                if (!Checksum.SUPPORTED.contains(checksum))
+                {
+                    throw new IllegalStateException("Unsupported checksum " + checksum + ", pick from " + String.join(", ", Checksum.SUPPORTED));
+                }
+            }
+
+            if (new HashSet<>(checksums).size() != checksums.size())
+            {
+                throw new IllegalStateException("The same checksum was asked for more than once: " + checksums);
+            }
+
+            Set<String> coordinates = new HashSet<>();
+
+            for (Artifact artifact : artifacts)
+            {
+                if (!coordinates.add(artifact.coordinates()))
+                {
+                    throw new IllegalStateException(artifact.coordinates() + " was given more than once");
+                }
+            }
+
+            return new RepackageRequest(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.File;
+import java.util.Map;
+
+/*
+ * What a repackage produced: where the ZIP is, the checksums of every
+ * file in it, and how long each stage took
+ */
+public final class RepackageResult
+{
+    private final File outputFile;
+    private final boolean upToDate;
+    private final Map<String, Map<String, String>> checksums;
+    final Metrics metrics;
+
+    RepackageResult(File outputFile, boolean upToDate, Map<String, Map<String, String>> checksums, Metrics metrics)
+    {
+        this.outputFile = outputFile;
+        this.upToDate = upToDate;
+        this.checksums = checksums;
+        this.metrics = metrics;
+    }
+
+    public File outputFile()
+    {
+        return outputFile;
+    }
+
+    /*
+     * True if an incremental request found the output already current
+     * and left it alone
+     */
+    public boolean upToDate()
+    {
+        return upToDate;
+    }
+
+    /*
+     * Repository path of each file written (checksum files aside),
+     * mapped to its checksums by name (md5, sha1...)
+     */
+    public Map<String, Map<String, String>> checksums()
+    {
+        return checksums;
+    }
+
+    /*
+     * Wall time in nanoseconds spent in each stage, in the order the
+     * stages first ran
+     */
+    public Map<String, Long> timings()
+    {
+        return metrics.wallNanos();
+    }
+}
@@ -0,0 +1,609 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Turns AARs/JARs into Maven repository ZIPs (or writes them straight
+ * into a repository folder), for calling in-process
+ * rather than through the command line (which is just a wrapper around
+ * this). One Repackager can take any number of requests, from any
+ * number of threads at once, sharing its checksum cache and executor
+ * between them. Closing it saves the checksum cache.
+ */
+public final class Repackager implements Closeable
+{
+    private static final String POM_TEMPLATE = "/artifact-pom.pom";
+    private static final String FINGERPRINT_PREFIX = "AAR_Repackager fingerprint ";
+
+    private final ChecksumCache checksumCache;
+    private final ExecutorService executor;
+    private final boolean detailedMetrics;
+
+    private Repackager(Builder builder) throws IOException
+    {
+        this.checksumCache = builder.checksumCacheFile == null ? null : new ChecksumCache(builder.checksumCacheFile);
+        this.executor = builder.executor;
+        this.detailedMetrics = builder.detailedMetrics;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public static final class Builder
+    {
+        private File checksumCacheFile;
+        private ExecutorService executor;
+        private boolean detailedMetrics;
+
+        private Builder()
+        {
+        }
+
+        /*
+         * Index file used to remember input checksums between runs
+         */
+        public Builder checksumCache(File indexFile)
+        {
+            this.checksumCacheFile = indexFile;
+            return this;
+        }
+
+        /*
+         * Stage the artifacts of each request in parallel on this
+         * executor. It's left running when the Repackager is closed.
+         */
+        public Builder executor(ExecutorService executor)
+        {
+            this.executor = executor;
+            return this;
+        }
+
+        /*
+         * Measure CPU time and allocation per stage too
+         */
+        Builder detailedMetrics(boolean detailedMetrics)
+        {
+            this.detailedMetrics = detailedMetrics;
+            return this;
+        }
+
+        public Repackager build() throws IOException
+        {
+            return new Repackager(this);
+        }
+    }
+
+    public RepackageResult repackage(RepackageRequest request) throws IOException, NoSuchAlgorithmException
+    {
+        return new Run(request).repackage();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (checksumCache != null)
+        {
+            checksumCache.save();
+        }
+    }
+
+    /*
+     * The state of one request as it goes along
+     */
+    private class Run
+    {
+        private final RepackageRequest request;
+        private final String[] checksums;
+        private final Metrics metrics = new Metrics(detailedMetrics);
+        private final Map<String, Map<String, String>> writtenChecksums = Collections.synchronizedMap(new TreeMap<>());
+        private final ChecksumCache checksumCache;
+        private Map<String, List<String>> existingVersions;
+
+        Run(RepackageRequest request) throws IOException
+        {
+            this.request = request;
+            this.checksums = request.checksums.toArray(new String[0]);
+
+            /*
+             * The inputs get hashed for the fingerprint anyway, so
+             * keep the results around for when they are copied
+             */
+            this.checksumCache = Repackager.this.checksumCache == null && request.incremental ? new ChecksumCache(null) : Repackager.this.checksumCache;
+        }
+
+        /*
+         * Packages the artifacts into the output ZIP, staging them in
+         * parallel on the executor if there is one. A ZIP stream can
+         * only be written one entry at a time, so when streaming the
+         * executor goes unused.
+         */
+        RepackageResult repackage() throws IOException, NoSuchAlgorithmException
+        {
+            if (request.repository != null)
+            {
+                /*
+                 * No ZIP at all, the files go straight where they belong
+                 */
+                readExistingVersions();
+                writeArtifacts(DirectoryWriter.repository(request.repository, checksumCache), executor);
+                return new RepackageResult(request.repository, false, Collections.unmodifiableMap(new TreeMap<>(writtenChecksums)), metrics);
+            }
+
+            File zipFile = request.outputFile;
+            String comment = null;
+
+            if (request.incremental)
+            {
+                /*
+                 * Nothing to do if the ZIP that's already there was built
+                 * from exactly the same inputs
+                 */
+                Metrics.Timer timer = metrics.time("fingerprint");
+
+                try
+                {
+                    comment = FINGERPRINT_PREFIX + fingerprint(zipFile);
+                }
+                finally
+                {
+                    timer.close();
+                }
+
+                if (zipFile.exists() && comment.equals(FileUtil.zipComment(zipFile)))
+                {
+                    return new RepackageResult(zipFile, true, Collections.<String, Map<String, String>>emptyMap(), metrics);
+                }
+            }
+
+            /*
+             * On a first run there's nothing to merge with yet, which
+             * is the usual case when merging into the output itself
+             */
+            File mergeFile = request.mergeFile != null && request.mergeFile.exists() ? request.mergeFile : null;
+
+            readExistingVersions();
+
+            /*
+             * Build the new ZIP alongside and only swap it in once it's
+             * complete, so a failed run leaves whatever was there alone.
+             * The ZIP being merged from may well be the one being
+             * replaced, too.
+             */
+            File targetFile = FileUtil.temporaryFor(zipFile);
+            ZipWriter zip = new ZipWriter(targetFile, request.compressionLevel, request.deflateArchives);
+            boolean finished = false;
+
+            try
+            {
+                if (request.stream)
+                {
+                    writeArtifacts(new ZipStreamWriter(zip, checksumCache), null);
+                }
+                else
+                {
+                    /*
+                     * Stage the layout in a folder first. Anything a
+                     * failed run left in there would end up in the ZIP,
+                     * so start from nothing.
+                     */
+                    File stagingFolder = new File(zipFile.getPath() + ".staging");
+                    FileUtil.deleteFolder(stagingFolder);
+
+                    try
+                    {
+                        DirectoryWriter staging = DirectoryWriter.staging(stagingFolder, checksumCache);
+                        writeArtifacts(staging, executor);
+
+                        /*
+                         * Alright we're all done, ZIP it up!
+                         */
+                        try (Metrics.Timer timer = metrics.time("zip"))
+                        {
+                            long start = zip.bytesWritten();
+                            timer.read(FileUtil.zipDir(stagingFolder.getPath(), zip, staging));
+                            timer.written(zip.bytesWritten() - start);
+                        }
+                    }
+                    finally
+                    {
+                        /*
+                         * A little clean up before we get out of dodge,
+                         * whichever way that is
+                         */
+                        Metrics.Timer timer = metrics.time("cleanup");
+
+                        try
+                        {
+                            FileUtil.deleteFolder(stagingFolder);
+                        }
+                        finally
+                        {
+                            timer.close();
+                        }
+                    }
+                }
+
+                /*
+                 * Carry over whatever else the old ZIP had in it
+                 */
+                if (mergeFile != null)
+                {
+                    try (Metrics.Timer timer = metrics.time("merge"))
+                    {
+                        long start = zip.bytesWritten();
+                        zip.transplantAll(mergeFile);
+                        timer.written(zip.bytesWritten() - start);
+                    }
+                }
+
+                /*
+                 * Only a ZIP that made it this far gets the fingerprint,
+                 * so a failed run is never taken as up to date
+                 */
+                zip.finish(comment);
+                Files.move(targetFile.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                finished = true;
+            }
+            finally
+            {
+                if (!finished)
+                {
+                    zip.abort();
+                    targetFile.delete();
+                }
+            }
+
+            return new RepackageResult(zipFile, false, Collections.unmodifiableMap(new TreeMap<>(writtenChecksums)), metrics);
+        }
+
+        /*
+         * Writes out the artifacts, in parallel on the executor if one
+         * is given. Versions of the same artifact share a metadata file,
+         * so they are handled in manifest order by one task, which
+         * writes the metadata once they're all in.
+         */
+        private void writeArtifacts(RepositoryWriter writer, ExecutorService executor) throws IOException, NoSuchAlgorithmException
+        {
+            Map<String, List<Artifact>> byMetadataFolder = new LinkedHashMap<>();
+
+            for (Artifact artifact : request.artifacts)
+            {
+                byMetadataFolder.computeIfAbsent(artifact.metadataFolder(), k -> new ArrayList<>()).add(artifact);
+            }
+
+            if (executor == null)
+            {
+                for (List<Artifact> group : byMetadataFolder.values())
+                {
+                    writeGroup(writer, group);
+                }
+            }
+            else
+            {
+                List<Future<?>> futures = new ArrayList<>();
+
+                for (List<Artifact> group : byMetadataFolder.values())
+                {
+                    futures.add(executor.submit(() ->
+                    {
+                        writeGroup(writer, group);
+                        return null;
+                    }));
+                }
+
+                await(futures);
+            }
+        }
+
+        private void writeGroup(RepositoryWriter writer, List<Artifact> group) throws IOException, NoSuchAlgorithmException
+        {
+            for (Artifact artifact : group)
+            {
+                writeArtifact(writer, artifact);
+            }
+
+            writeMetadata(writer, group);
+        }
+
+        /*
+         * Finds the versions already published for each artifact,
+         * either in the repository folder or in the ZIP being merged
+         * with. A plain output ZIP is about to be replaced wholesale,
+         * so whatever it listed before doesn't count.
+         */
+        private void readExistingVersions() throws IOException
+        {
+            existingVersions = new HashMap<>();
+            File zipFile = request.mergeFile;
+
+            try (Metrics.Timer timer = metrics.time("read-metadata"))
+            {
+                for (Artifact artifact : request.artifacts)
+                {
+                    String folder = artifact.metadataFolder();
+
+                    if (existingVersions.containsKey(folder))
+                    {
+                        continue;
+                    }
+
+                    String path = folder + "/" + MavenMetadata.FILE_NAME;
+                    byte[] content = null;
+
+                    if (request.repository != null)
+                    {
+                        File file = new File(request.repository, path);
+
+                        if (file.exists())
+                        {
+                            content = Files.readAllBytes(file.toPath());
+                        }
+                    }
+                    else if (zipFile != null && zipFile.exists())
+                    {
+                        content = FileUtil.readZipEntry(zipFile, path);
+                    }
+
+                    if (content != null)
+                    {
+                        timer.read(content.length);
+                    }
+
+                    existingVersions.put(folder, content == null ? Collections.<String>emptyList() : MavenMetadata.readVersions(content));
+                }
+            }
+        }
+
+        /*
+         * Sums up everything that goes into the output: the templates,
+         * the options that shape the ZIP, and each artifact's coordinates
+         * and input checksums
+         */
+        private String fingerprint(File zipFile) throws IOException, NoSuchAlgorithmException
+        {
+            StringBuilder builder = new StringBuilder();
+            builder.append(Template.load(POM_TEMPLATE).source()).append('\n');
+            builder.append(MavenMetadata.templateSource()).append('\n');
+            builder.append(request.checksums).append(' ').append(request.compressionLevel).append(' ').append(request.deflateArchives).append(' ').append(request.stream).append('\n');
+
+            /*
+             * Ask for the CRC too so the stream writer finds everything
+             * it needs in the cache
+             */
+            String[] names = Arrays.copyOf(checksums, checksums.length + 1);
+            names[checksums.length] = Checksum.CRC32;
+
+            for (Artifact artifact : request.artifacts)
+            {
+                builder.append(artifact.groupName).append(':')
+                        .append(artifact.artifactName).append(':')
+                        .append(artifact.artifactVersion).append(':')
+                        .append(artifact.packaging).append(' ')
+                        .append(Arrays.toString(checksumCache.calculate(artifact.inputFile, names)));
+
+                if (artifact.sourcesFile != null)
+                {
+                    builder.append(' ').append(Arrays.toString(checksumCache.calculate(artifact.sourcesFile, names)));
+                }
+
+                builder.append('\n');
+            }
+
+            /*
+             * A ZIP merged into itself is already accounted for, and
+             * one that isn't there yet has nothing to contribute
+             */
+            if (request.mergeFile != null && request.mergeFile.exists() && !request.mergeFile.getCanonicalFile().equals(zipFile.getCanonicalFile()))
+            {
+                builder.append(Arrays.toString(checksumCache.calculate(request.mergeFile, Checksum.SHA1))).append('\n');
+            }
+
+            return Checksum.calculate(builder.toString().getBytes(StandardCharsets.UTF_8), Checksum.SHA1)[0];
+        }
+
+        private void writeArtifact(RepositoryWriter writer, Artifact artifact) throws IOException, NoSuchAlgorithmException
+        {
+            String pathToArtifactFolder = artifact.artifactFolder();
+            String baseName = artifact.baseName();
+
+            /*
+             * Copy the artifact into the correct path, hashing it
+             * on the way, and add the checksum files for it
+             */
+            copyWithChecksums(writer, pathToArtifactFolder + "/" + baseName + artifact.extension, artifact.inputFile);
+
+            /*
+             * Fill in the needed items in the POM and put it in
+             * the artifact folder along with its checksums
+             */
+            Map<String, String> values = new HashMap<>();
+            values.put("GROUP_ID_HERE", artifact.groupName);
+            values.put("ARTIFACT_ID_HERE", artifact.artifactName);
+            values.put("ARTIFACT_VERSION_HERE", artifact.artifactVersion);
+            values.put("ARTIFACT_EXTENSION_HERE", artifact.packaging);
+
+            byte[] pomContent;
+
+            try (Metrics.Timer timer = metrics.time("render-pom"))
+            {
+                pomContent = Template.load(POM_TEMPLATE).render(values);
+                timer.written(pomContent.length);
+            }
+
+            writeWithChecksums(writer, pathToArtifactFolder + "/" + baseName + ".pom", pomContent);
+
+            /*
+             * Do we need to process a sources JAR too?
+             */
+            if (artifact.sourcesFile != null)
+            {
+                /*
+                 * Ok so looks like we do have a source archive
+                 * Copy it into the correct folder along with its
+                 * checksum files
+                 */
+                copyWithChecksums(writer, pathToArtifactFolder + "/" + baseName + "-sources.jar", artifact.sourcesFile);
+            }
+        }
+
+        /*
+         * The metadata lists the new versions along with whatever was
+         * already published. It goes last, so anyone reading a live
+         * repository never sees a version listed before all of its
+         * files are there.
+         */
+        private void writeMetadata(RepositoryWriter writer, List<Artifact> group) throws IOException, NoSuchAlgorithmException
+        {
+            Artifact first = group.get(0);
+            List<String> versions = new ArrayList<>(existingVersions.get(first.metadataFolder()));
+
+            for (Artifact artifact : group)
+            {
+                versions.add(artifact.artifactVersion);
+            }
+
+            byte[] metadataContent;
+
+            try (Metrics.Timer timer = metrics.time("render-metadata"))
+            {
+                String lastUpdated = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+                metadataContent = MavenMetadata.render(first.groupName, first.artifactName, versions, lastUpdated);
+                timer.written(metadataContent.length);
+            }
+
+            writeWithChecksums(writer, first.metadataFolder() + "/" + MavenMetadata.FILE_NAME, metadataContent);
+        }
+
+        private void copyWithChecksums(RepositoryWriter writer, String path, File source) throws IOException, NoSuchAlgorithmException
+        {
+            String[] values;
+
+            /*
+             * Hashing happens in the same pass as the copy, so
+             * it is timed as part of it. The writer knows best
+             * how many bytes that really took.
+             */
+            try (Metrics.Timer timer = metrics.time("copy"))
+            {
+                values = writer.copy(path, source, timer, checksums);
+            }
+
+            writeChecksumFiles(writer, path, values);
+        }
+
+        private void writeWithChecksums(RepositoryWriter writer, String path, byte[] content) throws IOException, NoSuchAlgorithmException
+        {
+            String[] values;
+
+            try (Metrics.Timer timer = metrics.time("write"))
+            {
+                writer.write(path, content);
+                timer.written(content.length);
+            }
+
+            try (Metrics.Timer timer = metrics.time("hash"))
+            {
+                values = Checksum.calculate(content, checksums);
+                timer.read(content.length);
+            }
+
+            writeChecksumFiles(writer, path, values);
+        }
+
+        private void writeChecksumFiles(RepositoryWriter writer, String path, String[] values) throws IOException
+        {
+            Map<String, String> byName = new LinkedHashMap<>();
+
+            try (Metrics.Timer timer = metrics.time("checksum-files"))
+            {
+                for (int i = 0; i < checksums.length; i++)
+                {
+                    byte[] content = values[i].getBytes(StandardCharsets.US_ASCII);
+                    writer.write(path + "." + checksums[i], content);
+                    timer.written(content.length);
+                    byName.put(checksums[i], values[i]);
+                }
+            }
+
+            writtenChecksums.put(path, Collections.unmodifiableMap(byName));
+        }
+    }
+
+    static void await(List<Future<?>> futures) throws IOException, NoSuchAlgorithmException
+    {
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+
+                if (cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                }
+                else if (cause instanceof NoSuchAlgorithmException)
+                {
+                    throw (NoSuchAlgorithmException) cause;
+                }
+                else if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException) cause;
+                }
+
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+}
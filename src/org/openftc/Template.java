@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * One of our XML resource templates, split up front into literal text
+ * and SOMETHING_HERE placeholders so that rendering it is just a copy
+ */
+class Template
+{
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\b[A-Z][A-Z_]*_HERE\\b");
+    private static final Map<String, Template> cache = new ConcurrentHashMap<>();
+
+    /*
+     * Literal chunks are stored as encoded bytes, placeholders as
+     * their name, in the order they appear
+     */
+    private final List<Object> segments = new ArrayList<>();
+    private final String source;
+
+    private Template(String content)
+    {
+        source = content;
+        Matcher matcher = PLACEHOLDER.matcher(content);
+        int last = 0;
+
+        while (matcher.find())
+        {
+            segments.add(content.substring(last, matcher.start()).getBytes(StandardCharsets.UTF_8));
+            segments.add(matcher.group());
+            last = matcher.end();
+        }
+
+        segments.add(content.substring(last).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * Templates are parsed the first time they are asked for
+     * and shared from then on
+     */
+    static Template load(String resource) throws IOException
+    {
+        Template template = cache.get(resource);
+
+        if (template == null)
+        {
+            template = new Template(readResource(resource));
+            cache.putIfAbsent(resource, template);
+        }
+
+        return template;
+    }
+
+    /*
+     * The unrendered template text
+     */
+    String source()
+    {
+        return source;
+    }
+
+    /*
+     * Fills in every placeholder from values, XML-escaping them
+     */
+    byte[] render(Map<String, String> values)
+    {
+        return render(values, Collections.<String, byte[]>emptyMap());
+    }
+
+    /*
+     * Same again, except placeholders found in fragments are filled
+     * in with XML that's already been rendered, as it is
+     */
+    byte[] render(Map<String, String> values, Map<String, byte[]> fragments)
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        for (Object segment : segments)
+        {
+            if (segment instanceof byte[])
+            {
+                byte[] literal = (byte[]) segment;
+                os.write(literal, 0, literal.length);
+            }
+            else if (fragments.containsKey(segment))
+            {
+                byte[] fragment = fragments.get(segment);
+                os.write(fragment, 0, fragment.length);
+            }
+            else
+            {
+                String value = values.get(segment);
+
+                if (value == null)
+                {
+                    throw new IllegalArgumentException("No value given for " + segment);
+                }
+
+                byte[] escaped = escapeXml(value).getBytes(StandardCharsets.UTF_8);
+                os.write(escaped, 0, escaped.length);
+            }
+        }
+
+        return os.toByteArray();
+    }
+
+    static String escapeXml(String value)
+    {
+        StringBuilder builder = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            switch (c)
+            {
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                case '\'':
+                    builder.append("&apos;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static String readResource(String name) throws IOException
+    {
+        try (InputStream is = Template.class.getResourceAsStream(name))
+        {
+            if (is == null)
+            {
+                throw new FileNotFoundException("Missing resource " + name);
+            }
+
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = is.read(buffer)) > 0)
+            {
+                os.write(buffer, 0, read);
+            }
+
+            return new String(os.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/*
+ * Reads the central directory of an existing ZIP so its entries can be
+ * copied into a new one byte for byte, without inflating anything
+ */
+class ZipArchive implements Closeable
+{
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int END_SIZE = 22;
+    private static final int FLAG_UTF8 = 0x800;
+
+    /*
+     * What names are in when they aren't flagged as UTF-8. Not every
+     * JRE has it, and ISO-8859-1 at least maps every byte to something.
+     */
+    private static final Charset LEGACY_NAMES = Charset.isSupported("IBM437") ? Charset.forName("IBM437") : StandardCharsets.ISO_8859_1;
+
+    static class Entry
+    {
+        byte[] name;
+        int method;
+        int flags;
+        long crc;
+        long size;
+        long compressedSize;
+        long localHeaderOffset;
+
+        String decodedName()
+        {
+            return new String(name, (flags & FLAG_UTF8) != 0 ? StandardCharsets.UTF_8 : LEGACY_NAMES);
+        }
+    }
+
+    final FileChannel channel;
+    final List<Entry> entries = new ArrayList<>();
+
+    ZipArchive(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+            readCentralDirectory();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Where the entry's data starts, just past its local header
+     */
+    long dataOffset(Entry entry) throws IOException
+    {
+        ByteBuffer header = read(entry.localHeaderOffset, 30);
+
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+        {
+            throw new ZipException("Bad local header for " + entry.decodedName());
+        }
+
+        return entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+    }
+
+    private void readCentralDirectory() throws IOException
+    {
+        /*
+         * The end record sits at the very end, followed only by a
+         * comment of at most 64K, so search backwards for it
+         */
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + 0xFFFF);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+        int end = -1;
+
+        for (int i = tailSize - END_SIZE; i >= 0; i--)
+        {
+            if (tail.getInt(i) == END_SIGNATURE)
+            {
+                end = i;
+                break;
+            }
+        }
+
+        if (end < 0)
+        {
+            throw new ZipException("Not a ZIP file");
+        }
+
+        long count = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+        long endOffset = fileSize - tailSize + end;
+
+        if (endOffset >= 20)
+        {
+            ByteBuffer locator = read(endOffset - 20, 20);
+
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE)
+            {
+                ByteBuffer zip64End = read(locator.getLong(8), 56);
+
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE)
+                {
+                    throw new ZipException("Bad ZIP64 end record");
+                }
+
+                count = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+        }
+
+        if (directorySize > Integer.MAX_VALUE)
+        {
+            throw new ZipException("Central directory too large");
+        }
+
+        ByteBuffer directory = read(directoryOffset, (int) directorySize);
+
+        for (long i = 0; i < count; i++)
+        {
+            if (directory.getInt() != CENTRAL_HEADER_SIGNATURE)
+            {
+                throw new ZipException("Bad central directory header");
+            }
+
+            Entry entry = new Entry();
+            directory.getShort();
+            directory.getShort();
+            entry.flags = directory.getShort() & 0xFFFF;
+            entry.method = directory.getShort() & 0xFFFF;
+            directory.getInt();
+            entry.crc = directory.getInt() & ZIP64_MAGIC;
+            entry.compressedSize = directory.getInt() & ZIP64_MAGIC;
+            entry.size = directory.getInt() & ZIP64_MAGIC;
+            int nameLength = directory.getShort() & 0xFFFF;
+            int extraLength = directory.getShort() & 0xFFFF;
+            int commentLength = directory.getShort() & 0xFFFF;
+            directory.getShort();
+            directory.getShort();
+            directory.getInt();
+            entry.localHeaderOffset = directory.getInt() & ZIP64_MAGIC;
+
+            entry.name = new byte[nameLength];
+            directory.get(entry.name);
+
+            int extraEnd = directory.position() + extraLength;
+
+            while (directory.position() + 4 <= extraEnd)
+            {
+                int id = directory.getShort() & 0xFFFF;
+                int length = directory.getShort() & 0xFFFF;
+                int next = directory.position() + length;
+
+                /*
+                 * The ZIP64 field only holds the values that
+                 * overflowed, in this order
+                 */
+                if (id == ZIP64_EXTRA_ID)
+                {
+                    if (entry.size == ZIP64_MAGIC)
+                    {
+                        entry.size = directory.getLong();
+                    }
+
+                    if (entry.compressedSize == ZIP64_MAGIC)
+                    {
+                        entry.compressedSize = directory.getLong();
+                    }
+
+                    if (entry.localHeaderOffset == ZIP64_MAGIC)
+                    {
+                        entry.localHeaderOffset = directory.getLong();
+                    }
+                }
+
+                directory.position(next);
+            }
+
+            directory.position(extraEnd + commentLength);
+            entries.add(entry);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new ZipException("Unexpected end of ZIP file");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/*
+ * Writes the repository layout straight into a ZIP file as entries,
+ * without ever materializing it on disk
+ */
+class ZipStreamWriter implements RepositoryWriter
+{
+    private final ZipWriter zip;
+    private final ChecksumCache cache;
+
+    ZipStreamWriter(ZipWriter zip, ChecksumCache cache)
+    {
+        this.zip = zip;
+        this.cache = cache;
+    }
+
+    @Override
+    public void write(String path, byte[] content) throws IOException
+    {
+        zip.write(path, content);
+    }
+
+    @Override
+    public String[] copy(String path, File source, Metrics.Timer timer, String... checksums) throws IOException, NoSuchAlgorithmException
+    {
+        long start = zip.bytesWritten();
+
+        if (zip.shouldDeflate(path))
+        {
+            MessageDigest[] digests = Checksum.newDigests(checksums);
+            zip.writeDeflated(path, source, digests);
+            timer.read(source.length());
+            timer.written(zip.bytesWritten() - start);
+            return Checksum.toHex(digests);
+        }
+
+        /*
+         * A STORED entry needs its CRC up front, so hash the file
+         * first (unless the cache already knows it) and then copy
+         * it across untouched
+         */
+        String[] names = Arrays.copyOf(checksums, checksums.length + 1);
+        names[checksums.length] = Checksum.CRC32;
+
+        String[] values = cache == null ? null : cache.get(source, names);
+
+        if (values == null)
+        {
+            String stamp = cache == null ? null : ChecksumCache.stampOf(source);
+            values = Checksum.calculate(source, names);
+            timer.read(source.length());
+
+            if (cache != null)
+            {
+                cache.put(source, stamp, names, values);
+            }
+        }
+
+        long crc = Long.parseLong(values[checksums.length], 16);
+
+        zip.writeStored(path, source, crc);
+        timer.read(source.length());
+        timer.written(zip.bytesWritten() - start);
+        return Arrays.copyOf(values, checksums.length);
+    }
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/*
+ * A minimal ZIP writer. Unlike ZipOutputStream it lets us hand over
+ * entry data that is already compressed (or never will be), which is
+ * what the parallel deflater and stored copies need. ZIP64 records are
+ * written whenever sizes, offsets or the entry count call for them.
+ */
+class ZipWriter implements Closeable
+{
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    /*
+     * Entries whose final size isn't known when the local header is
+     * written go ZIP64 a bit early, since DEFLATE can grow the data
+     */
+    private static final long ZIP64_EARLY_THRESHOLD = 0xF0000000L;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static class Entry
+    {
+        byte[] name;
+        int method;
+        int flags;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(65536).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final int compressionLevel;
+    private final boolean deflateArchives;
+    private final int dosTime;
+    private long position;
+    private boolean closed;
+
+    /*
+     * Entry data goes through here so it is counted and buffered
+     */
+    private final OutputStream dataStream = new OutputStream()
+    {
+        @Override
+        public void write(int b) throws IOException
+        {
+            ensure(1);
+            buffer.put((byte) b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            putBytes(b, off, len);
+        }
+    };
+
+    ZipWriter(File file, int compressionLevel, boolean deflateArchives) throws IOException
+    {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.compressionLevel = compressionLevel;
+        this.deflateArchives = deflateArchives;
+
+        LocalDateTime now = LocalDateTime.now();
+        this.dosTime = (now.getYear() - 1980) << 25
+                | now.getMonthValue() << 21
+                | now.getDayOfMonth() << 16
+                | now.getHour() << 11
+                | now.getMinute() << 5
+                | now.getSecond() >> 1;
+    }
+
+    long bytesWritten()
+    {
+        return position;
+    }
+
+    boolean shouldDeflate(String name)
+    {
+        return deflateArchives || FileUtil.isCompressible(name);
+    }
+
+    /*
+     * Adds a small entry that is already in memory
+     */
+    void write(String name, byte[] content) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        if (!shouldDeflate(name))
+        {
+            startEntry(name, STORED, 0, crc.getValue(), content.length, content.length);
+            putBytes(content, 0, content.length);
+            return;
+        }
+
+        Deflater deflater = new Deflater(compressionLevel, true);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        try
+        {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] chunk = new byte[8192];
+
+            while (!deflater.finished())
+            {
+                os.write(chunk, 0, deflater.deflate(chunk));
+            }
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        byte[] compressed = os.toByteArray();
+        startEntry(name, DEFLATED, 0, crc.getValue(), content.length, compressed.length);
+        putBytes(compressed, 0, compressed.length);
+    }
+
+    /*
+     * Copies a file in as-is, given its CRC32
+     */
+    void writeStored(String name, File source, long crc) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ))
+        {
+            long size = in.size();
+            startEntry(name, STORED, 0, crc, size, size);
+            transfer(in, 0, size, source + " changed size while being zipped");
+        }
+    }
+
+    /*
+     * Compresses a file in, updating the digests with its content
+     */
+    void writeDeflated(String name, File source, MessageDigest... digests) throws IOException
+    {
+        /*
+         * The CRC and compressed size only turn up once the data has
+         * been written, so they go in a data descriptor after it
+         */
+        Entry entry = startEntry(name, DEFLATED, FLAG_DATA_DESCRIPTOR, 0, source.length(), -1);
+        long start = position;
+
+        entry.crc = ParallelDeflater.deflate(source, compressionLevel, dataStream, digests);
+        entry.compressedSize = position - start;
+
+        boolean zip64 = isZip64Local(entry);
+        put32(DATA_DESCRIPTOR_SIGNATURE);
+        put32(entry.crc);
+
+        if (zip64)
+        {
+            put64(entry.compressedSize);
+            put64(entry.size);
+        }
+        else
+        {
+            if (entry.compressedSize >= ZIP64_MAGIC)
+            {
+                throw new IOException(name + " compressed to more than 4GB");
+            }
+
+            put32(entry.compressedSize);
+            put32(entry.size);
+        }
+    }
+
+    /*
+     * Copies every entry of an existing ZIP that hasn't been written
+     * already, moving the compressed data across untouched. Names go
+     * across as the bytes they were, with the flag saying how to read
+     * them, so one that isn't UTF-8 doesn't get passed off as such.
+     */
+    void transplantAll(File sourceZip) throws IOException
+    {
+        try (ZipArchive source = new ZipArchive(sourceZip))
+        {
+            for (ZipArchive.Entry sourceEntry : source.entries)
+            {
+                String name = sourceEntry.decodedName();
+
+                if (names.contains(name))
+                {
+                    continue;
+                }
+
+                /*
+                 * The sizes and CRC are known from the central directory,
+                 * so no data descriptor is needed even if it had one
+                 */
+                startEntry(sourceEntry.name, name, sourceEntry.method, sourceEntry.flags & ~FLAG_DATA_DESCRIPTOR,
+                        sourceEntry.crc, sourceEntry.size, sourceEntry.compressedSize);
+
+                transfer(source.channel, source.dataOffset(sourceEntry), sourceEntry.compressedSize, "Unexpected end of " + sourceZip);
+            }
+        }
+    }
+
+    /*
+     * Writes the local header. A compressedSize of -1 means it isn't
+     * known yet and will follow in a data descriptor. Names may only
+     * be used once, same as ZipOutputStream.
+     */
+    private Entry startEntry(String name, int method, int flags, long crc, long size, long compressedSize) throws IOException
+    {
+        name = name.replace(File.separatorChar, '/');
+        return startEntry(name.getBytes(StandardCharsets.UTF_8), name, method, flags | FLAG_UTF8, crc, size, compressedSize);
+    }
+
+    /*
+     * Same, with the name as it goes in the ZIP and as it reads
+     */
+    private Entry startEntry(byte[] rawName, String name, int method, int flags, long crc, long size, long compressedSize) throws IOException
+    {
+        if (!names.add(name))
+        {
+            throw new ZipException("duplicate entry: " + name);
+        }
+
+        Entry entry = new Entry();
+        entry.name = rawName;
+        entry.method = method;
+        entry.flags = flags;
+        entry.crc = crc;
+        entry.size = size;
+        entry.compressedSize = compressedSize;
+        entry.offset = position;
+        entries.add(entry);
+
+        boolean zip64 = isZip64Local(entry);
+        boolean deferred = (flags & FLAG_DATA_DESCRIPTOR) != 0;
+
+        put32(LOCAL_HEADER_SIGNATURE);
+        put16(zip64 ? VERSION_ZIP64 : VERSION);
+        put16(entry.flags);
+        put16(method);
+        put32(dosTime);
+        put32(deferred ? 0 : crc);
+
+        if (zip64)
+        {
+            put32(ZIP64_MAGIC);
+            put32(ZIP64_MAGIC);
+        }
+        else
+        {
+            put32(deferred ? 0 : compressedSize);
+            put32(deferred ? 0 : size);
+        }
+
+        put16(entry.name.length);
+        put16(zip64 ? 20 : 0);
+        putBytes(entry.name, 0, entry.name.length);
+
+        if (zip64)
+        {
+            put16(ZIP64_EXTRA_ID);
+            put16(16);
+            put64(deferred ? 0 : size);
+            put64(deferred ? 0 : compressedSize);
+        }
+
+        return entry;
+    }
+
+    private static boolean isZip64Local(Entry entry)
+    {
+        if ((entry.flags & FLAG_DATA_DESCRIPTOR) != 0)
+        {
+            return entry.size >= ZIP64_EARLY_THRESHOLD;
+        }
+
+        return entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+    }
+
+    /*
+     * Gives up on the ZIP after something went wrong. The file is
+     * closed as it is, without a central directory, so nothing will
+     * mistake it for a finished archive.
+     */
+    void abort()
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            /*
+             * Already failing, the first error is the one that matters
+             */
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        finish(null);
+    }
+
+    /*
+     * Finishes the ZIP off with the central directory and the comment,
+     * if any. The comment is only known to be true once everything is
+     * in, which is why it goes in here rather than up front.
+     */
+    void finish(String comment) throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+        byte[] commentBytes = comment == null ? new byte[0] : comment.getBytes(StandardCharsets.UTF_8);
+
+        try
+        {
+            long centralDirectoryOffset = position;
+
+            for (Entry entry : entries)
+            {
+                writeCentralHeader(entry);
+            }
+
+            long centralDirectorySize = position - centralDirectoryOffset;
+            int count = entries.size();
+
+            if (count >= 0xFFFF || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC)
+            {
+                long zip64EndOffset = position;
+
+                put32(ZIP64_END_SIGNATURE);
+                put64(44);
+                put16(VERSION_ZIP64);
+                put16(VERSION_ZIP64);
+                put32(0);
+                put32(0);
+                put64(count);
+                put64(count);
+                put64(centralDirectorySize);
+                put64(centralDirectoryOffset);
+
+                put32(ZIP64_LOCATOR_SIGNATURE);
+                put32(0);
+                put64(zip64EndOffset);
+                put32(1);
+            }
+
+            put32(END_SIGNATURE);
+            put16(0);
+            put16(0);
+            put16(Math.min(count, 0xFFFF));
+            put16(Math.min(count, 0xFFFF));
+            put32(Math.min(centralDirectorySize, ZIP64_MAGIC));
+            put32(Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+            put16(commentBytes.length);
+            putBytes(commentBytes, 0, commentBytes.length);
+
+            flush();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException
+    {
+        /*
+         * Only the fields that overflow go in the ZIP64 extra field,
+         * in this order
+         */
+        ByteBuffer extra = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+        extra.putShort((short) ZIP64_EXTRA_ID);
+        extra.putShort((short) 0);
+
+        if (entry.size >= ZIP64_MAGIC)
+        {
+            extra.putLong(entry.size);
+        }
+
+        if (entry.compressedSize >= ZIP64_MAGIC)
+        {
+            extra.putLong(entry.compressedSize);
+        }
+
+        if (entry.offset >= ZIP64_MAGIC)
+        {
+            extra.putLong(entry.offset);
+        }
+
+        int extraLength = extra.position() > 4 ? extra.position() : 0;
+        extra.putShort(2, (short) (extraLength - 4));
+
+        boolean zip64 = extraLength > 0 || isZip64Local(entry);
+
+        put32(CENTRAL_HEADER_SIGNATURE);
+        put16(zip64 ? VERSION_ZIP64 : VERSION);
+        put16(zip64 ? VERSION_ZIP64 : VERSION);
+        put16(entry.flags);
+        put16(entry.method);
+        put32(dosTime);
+        put32(entry.crc);
+        put32(Math.min(entry.compressedSize, ZIP64_MAGIC));
+        put32(Math.min(entry.size, ZIP64_MAGIC));
+        put16(entry.name.length);
+        put16(extraLength);
+        put16(0);
+        put16(0);
+        put16(0);
+        put32(0);
+        put32(Math.min(entry.offset, ZIP64_MAGIC));
+        putBytes(entry.name, 0, entry.name.length);
+        putBytes(extra.array(), 0, extraLength);
+    }
+
+    private void put16(int value) throws IOException
+    {
+        ensure(2);
+        buffer.putShort((short) value);
+        position += 2;
+    }
+
+    private void put32(long value) throws IOException
+    {
+        ensure(4);
+        buffer.putInt((int) value);
+        position += 4;
+    }
+
+    private void put64(long value) throws IOException
+    {
+        ensure(8);
+        buffer.putLong(value);
+        position += 8;
+    }
+
+    private void putBytes(byte[] bytes, int offset, int length) throws IOException
+    {
+        while (length > 0)
+        {
+            ensure(1);
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void ensure(int bytes) throws IOException
+    {
+        if (buffer.remaining() < bytes)
+        {
+            flush();
+        }
+    }
+
+    /*
+     * Copies straight from another channel into the ZIP, so the kernel
+     * can move the bytes (sendfile/copy_file_range on Linux) without
+     * them passing through our buffer
+     */
+    private void transfer(FileChannel source, long offset, long count, String error) throws IOException
+    {
+        flush();
+
+        while (count > 0)
+        {
+            long transferred = source.transferTo(offset, count, channel);
+
+            if (transferred <= 0)
+            {
+                throw new IOException(error);
+            }
+
+            offset += transferred;
+            count -= transferred;
+            position += transferred;
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ArtifactTest
+{
+    @TempDir
+    Path folder;
+
+    @Test
+    void readsManifest() throws Exception
+    {
+        List<Artifact> artifacts = Artifact.readManifest(manifest(
+                "# input,sources,group,artifact,version",
+                "",
+                "libs/foo.aar, libs/foo-sources.jar ,org.example,foo,1.0",
+                "libs/bar.jar,,org.example,bar,2.0"));
+
+        assertEquals(2, artifacts.size());
+        assertEquals(folder.resolve("libs/foo.aar").toFile(), artifacts.get(0).inputFile);
+        assertEquals(folder.resolve("libs/foo-sources.jar").toFile(), artifacts.get(0).sourcesFile);
+        assertEquals("org.example:foo:1.0", artifacts.get(0).coordinates());
+        assertNull(artifacts.get(1).sourcesFile);
+        assertEquals("jar", artifacts.get(1).packaging);
+    }
+
+    @Test
+    void rejectsTheSameCoordinatesTwice() throws Exception
+    {
+        File manifest = manifest(
+                "foo.aar,,org.example,foo,1.0",
+                "bar.aar,,org.example,bar,1.0",
+                "other/foo.aar,,org.example,foo,1.0");
+
+        IOException e = assertThrows(IOException.class, () -> Artifact.readManifest(manifest));
+        assertTrue(e.getMessage().endsWith(":3: org.example:foo:1.0 is already on line 1"), e.getMessage());
+    }
+
+    @Test
+    void zipNameTellsGroupsApart()
+    {
+        Artifact first = new Artifact(new File("a.aar"), null, "com.first", "lib", "1.0");
+        Artifact second = new Artifact(new File("b.aar"), null, "com.second", "lib", "1.0");
+
+        assertEquals("com.first-lib-1.0.zip", first.zipName());
+        assertNotEquals(first.zipName(), second.zipName());
+    }
+
+    private File manifest(String... lines) throws IOException
+    {
+        Path manifest = folder.resolve("manifest.csv");
+        Files.write(manifest, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return manifest.toFile();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChecksumCacheTest
+{
+    @TempDir
+    Path folder;
+
+    private File input;
+    private byte[] content;
+
+    @BeforeEach
+    void writeInput() throws Exception
+    {
+        content = ZipWriterTest.randomBytes(4096);
+        input = folder.resolve("lib.aar").toFile();
+        Files.write(input.toPath(), content);
+    }
+
+    @Test
+    void hitForAnUnchangedFile() throws Exception
+    {
+        ChecksumCache cache = new ChecksumCache(null);
+        assertNull(cache.get(input, Checksum.SHA1));
+
+        String[] values = cache.calculate(input, Checksum.MD5, Checksum.SHA1);
+
+        assertArrayEquals(Checksum.calculate(content, Checksum.MD5, Checksum.SHA1), values);
+        assertArrayEquals(values, cache.get(input, Checksum.MD5, Checksum.SHA1));
+        assertArrayEquals(new String[] {values[1]}, cache.get(input, Checksum.SHA1));
+    }
+
+    @Test
+    void missForAChecksumNotCalculatedYet() throws Exception
+    {
+        ChecksumCache cache = new ChecksumCache(null);
+        cache.calculate(input, Checksum.MD5);
+
+        assertNull(cache.get(input, Checksum.MD5, Checksum.SHA256));
+
+        cache.calculate(input, Checksum.SHA256);
+        assertNotNull(cache.get(input, Checksum.MD5, Checksum.SHA256));
+    }
+
+    @Test
+    void missAfterTheSizeChanges() throws Exception
+    {
+        ChecksumCache cache = new ChecksumCache(null);
+        cache.calculate(input, Checksum.SHA1);
+        FileTime lastModified = Files.getLastModifiedTime(input.toPath());
+
+        /*
+         * Put the old time back, so the size is the only difference
+         */
+        Files.write(input.toPath(), new byte[] {1}, StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(input.toPath(), lastModified);
+
+        assertNull(cache.get(input, Checksum.SHA1));
+    }
+
+    @Test
+    void missAfterTheModificationTimeChanges() throws Exception
+    {
+        ChecksumCache cache = new ChecksumCache(null);
+        cache.calculate(input, Checksum.SHA1);
+        FileTime lastModified = Files.getLastModifiedTime(input.toPath());
+
+        /*
+         * Same size, different content: only the time gives it away
+         */
+        content[0] ^= 1;
+        Files.write(input.toPath(), content);
+        Files.setLastModifiedTime(input.toPath(), FileTime.fromMillis(lastModified.toMillis() + 2000));
+
+        assertNull(cache.get(input, Checksum.SHA1));
+        assertArrayEquals(Checksum.calculate(content, Checksum.SHA1), cache.calculate(input, Checksum.SHA1));
+    }
+
+    /*
+     * The file changed while it was being hashed, so the checksums
+     * can't be tied to what is there now
+     */
+    @Test
+    void changeWhileHashingIsNotCached() throws Exception
+    {
+        ChecksumCache cache = new ChecksumCache(null);
+        String stamp = ChecksumCache.stampOf(input);
+        String[] values = Checksum.calculate(input, Checksum.SHA1);
+
+        Files.write(input.toPath(), new byte[] {1}, StandardOpenOption.APPEND);
+        cache.put(input, stamp, new String[] {Checksum.SHA1}, values);
+
+        assertNull(cache.get(input, Checksum.SHA1));
+    }
+
+    @Test
+    void survivesASaveAndLoad() throws Exception
+    {
+        File index = folder.resolve("checksums.idx").toFile();
+        ChecksumCache cache = new ChecksumCache(index);
+        String[] values = cache.calculate(input, Checksum.MD5, Checksum.SHA1);
+        cache.save();
+
+        ChecksumCache reloaded = new ChecksumCache(index);
+        assertArrayEquals(values, reloaded.get(input, Checksum.MD5, Checksum.SHA1));
+
+        /*
+         * Entries for files that are gone don't get saved again
+         */
+        Files.delete(input.toPath());
+        reloaded.save();
+        Files.write(input.toPath(), content);
+        Files.setLastModifiedTime(input.toPath(), FileTime.fromMillis(0));
+
+        assertNull(new ChecksumCache(index).get(input, Checksum.MD5));
+
+        try (Stream<Path> files = Files.list(folder))
+        {
+            assertFalse(files.anyMatch(p -> p.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DirectoryWriterTest
+{
+    @TempDir
+    Path folder;
+
+    @Test
+    void stagingRemembersTheCrc() throws Exception
+    {
+        byte[] content = randomBytes(10000);
+        File source = write("in.aar", content);
+        DirectoryWriter staging = DirectoryWriter.staging(folder.resolve("staging").toFile(), null);
+
+        String[] values = staging.copy("a/b/lib.aar", source, timer(), Checksum.SHA1);
+
+        assertArrayEquals(Checksum.calculate(content, Checksum.SHA1), values);
+        assertEquals(crc(content), staging.crc("a/b/lib.aar"));
+        assertArrayEquals(content, Files.readAllBytes(folder.resolve("staging/a/b/lib.aar")));
+        assertNull(staging.crc("a/b/other.aar"));
+    }
+
+    @Test
+    void crcIsDroppedOnceTheStagedFileChanges() throws Exception
+    {
+        byte[] content = randomBytes(10000);
+        File source = write("in.aar", content);
+        DirectoryWriter staging = DirectoryWriter.staging(folder.resolve("staging").toFile(), null);
+        staging.copy("lib.aar", source, timer(), Checksum.SHA1);
+
+        /*
+         * Same size, so only the modification time gives it away
+         */
+        Path staged = folder.resolve("staging/lib.aar");
+        FileTime before = Files.getLastModifiedTime(staged);
+        content[0] ^= 1;
+        Files.write(staged, content);
+        Files.setLastModifiedTime(staged, FileTime.fromMillis(before.toMillis() + 2000));
+
+        assertNull(staging.crc("lib.aar"));
+    }
+
+    @Test
+    void repositoryWritesLeaveNoTemporaryFiles() throws Exception
+    {
+        byte[] content = randomBytes(1000);
+        File source = write("in.aar", content);
+        DirectoryWriter repository = DirectoryWriter.repository(folder.resolve("repo").toFile(), null);
+
+        repository.copy("g/a/1.0/a-1.0.aar", source, timer(), Checksum.MD5);
+        repository.write("g/a/maven-metadata.xml", content);
+
+        assertArrayEquals(content, Files.readAllBytes(folder.resolve("repo/g/a/1.0/a-1.0.aar")));
+        assertArrayEquals(content, Files.readAllBytes(folder.resolve("repo/g/a/maven-metadata.xml")));
+        assertNull(repository.crc("g/a/1.0/a-1.0.aar"));
+
+        try (Stream<Path> files = Files.walk(folder.resolve("repo")))
+        {
+            assertFalse(files.anyMatch(p -> p.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    /*
+     * What a failed run can leave behind: the staged path is still a
+     * hard link to some other input. Writing over it must not write
+     * through it.
+     */
+    @Test
+    void copyOverAStaleLinkLeavesItsTargetAlone() throws Exception
+    {
+        byte[] first = randomBytes(1000);
+        byte[] second = randomBytes(2000);
+        File firstSource = write("first.aar", first);
+        File secondSource = write("second.aar", second);
+
+        for (boolean staging : new boolean[] {true, false})
+        {
+            File root = folder.resolve(staging ? "staging" : "repo").toFile();
+            DirectoryWriter writer = staging ? DirectoryWriter.staging(root, null) : DirectoryWriter.repository(root, null);
+            Path staged = root.toPath().resolve("lib.aar");
+            Files.createDirectories(staged.getParent());
+            Files.createLink(staged, firstSource.toPath());
+
+            writer.copy("lib.aar", secondSource, timer(), Checksum.SHA1);
+
+            assertArrayEquals(second, Files.readAllBytes(staged));
+            assertArrayEquals(first, Files.readAllBytes(firstSource.toPath()));
+        }
+    }
+
+    /*
+     * A link moves no bytes at all, and with the checksums already
+     * cached it doesn't even read any. A copy does both in full.
+     */
+    @Test
+    void copyCountsTheBytesItReallyMoved() throws Exception
+    {
+        byte[] content = randomBytes(10000);
+        File source = write("in.aar", content);
+        ChecksumCache cache = new ChecksumCache(null);
+        DirectoryWriter staging = DirectoryWriter.staging(folder.resolve("staging").toFile(), cache);
+        DirectoryWriter repository = DirectoryWriter.repository(folder.resolve("repo").toFile(), cache);
+
+        assertEquals("\"bytesRead\": 10000, \"bytesWritten\": 0", copyMetrics(staging, "first.aar", source));
+        assertEquals("\"bytesRead\": 0, \"bytesWritten\": 0", copyMetrics(staging, "second.aar", source));
+        assertEquals("\"bytesRead\": 10000, \"bytesWritten\": 10000", copyMetrics(repository, "lib.aar", source));
+    }
+
+    private String copyMetrics(DirectoryWriter writer, String path, File source) throws Exception
+    {
+        Metrics metrics = new Metrics(false);
+
+        try (Metrics.Timer timer = metrics.time("copy"))
+        {
+            writer.copy(path, source, timer, Checksum.SHA1);
+        }
+
+        Path json = folder.resolve("metrics.json");
+        metrics.writeJson(json);
+        Matcher matcher = Pattern.compile("\"bytesRead\": \\d+, \"bytesWritten\": \\d+").matcher(new String(Files.readAllBytes(json), StandardCharsets.UTF_8));
+        assertTrue(matcher.find());
+        return matcher.group();
+    }
+
+    /*
+     * For the copies whose numbers nobody looks at
+     */
+    private static Metrics.Timer timer()
+    {
+        return new Metrics(false).time("copy");
+    }
+
+    private File write(String name, byte[] content) throws Exception
+    {
+        Path file = folder.resolve(name);
+        Files.write(file, content);
+        return file.toFile();
+    }
+
+    private static byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Long crc(byte[] content)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
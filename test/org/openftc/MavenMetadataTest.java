@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class MavenMetadataTest
+{
+    /*
+     * In the order Maven's ComparableVersion puts them
+     */
+    private static final List<String> ORDERED = Arrays.asList(
+            "0.9",
+            "1.0-alpha-2",
+            "1.0-alpha-10",
+            "1.0-beta",
+            "1.0-rc1",
+            "1.0-SNAPSHOT",
+            "1.0",
+            "1.0-sp",
+            "1.0-custom",
+            "1.0.1",
+            "1.2",
+            "1.10",
+            "2.0.0-m1",
+            "10.0");
+
+    @Test
+    void sortsLikeMaven()
+    {
+        List<String> shuffled = new ArrayList<>(ORDERED);
+        Collections.shuffle(shuffled, new Random(0));
+        shuffled.sort(MavenMetadata.VERSION_ORDER);
+
+        assertEquals(ORDERED, shuffled);
+    }
+
+    /*
+     * Versions Maven considers the same only get told apart by their
+     * text, so a sorted set still keeps both
+     */
+    @Test
+    void qualifierAliasesAndPadding()
+    {
+        assertEquivalent("1", "1.0");
+        assertEquivalent("1.0", "1.0.0-final");
+        assertEquivalent("1.0-ga", "1.0-release");
+        assertEquivalent("1.0-a1", "1.0-alpha-1");
+        assertEquivalent("1.0-b2", "1.0-beta2");
+        assertEquivalent("1.0-cr1", "1.0-rc-1");
+        assertEquivalent("1.0-SNAPSHOT", "1.0-snapshot");
+        assertTrue(MavenMetadata.compareVersions("1.0-m1", "1.0-rc1") < 0);
+        assertTrue(MavenMetadata.compareVersions("1.9", "1.10") < 0);
+    }
+
+    @Test
+    void snapshotsAreOlderThanTheirRelease()
+    {
+        assertTrue(MavenMetadata.isSnapshot("1.0-SNAPSHOT"));
+        assertTrue(MavenMetadata.isSnapshot("1.0-snapshot"));
+        assertFalse(MavenMetadata.isSnapshot("1.0"));
+
+        assertTrue(MavenMetadata.compareVersions("1.0-SNAPSHOT", "1.0") < 0);
+        assertTrue(MavenMetadata.compareVersions("1.0-rc1", "1.0-SNAPSHOT") < 0);
+        assertTrue(MavenMetadata.compareVersions("1.0", "1.1-SNAPSHOT") < 0);
+    }
+
+    @Test
+    void rendersSortedVersionsWithLatestAndRelease() throws Exception
+    {
+        byte[] content = MavenMetadata.render("org.example", "lib", Arrays.asList("1.10", "1.2", "2.0-SNAPSHOT", "1.2"), "20180101120000");
+        String xml = new String(content, StandardCharsets.UTF_8);
+
+        assertEquals(Arrays.asList("1.2", "1.10", "2.0-SNAPSHOT"), MavenMetadata.readVersions(content));
+        assertTrue(xml.contains("<groupId>org.example</groupId>"));
+        assertTrue(xml.contains("<artifactId>lib</artifactId>"));
+        assertTrue(xml.contains("<latest>2.0-SNAPSHOT</latest>"));
+        assertTrue(xml.contains("<release>1.10</release>"));
+        assertTrue(xml.contains("<lastUpdated>20180101120000</lastUpdated>"));
+    }
+
+    @Test
+    void releaseFallsBackToLatestWhenAllAreSnapshots() throws Exception
+    {
+        String xml = new String(MavenMetadata.render("g", "a", Arrays.asList("1.0-SNAPSHOT", "1.1-SNAPSHOT"), "20180101120000"), StandardCharsets.UTF_8);
+
+        assertTrue(xml.contains("<latest>1.1-SNAPSHOT</latest>"));
+        assertTrue(xml.contains("<release>1.1-SNAPSHOT</release>"));
+    }
+
+    @Test
+    void versionsSurviveEscaping() throws Exception
+    {
+        List<String> versions = Arrays.asList("1.0", "1.0-a&b");
+        byte[] content = MavenMetadata.render("g", "a", versions, "20180101120000");
+
+        assertTrue(new String(content, StandardCharsets.UTF_8).contains("<version>1.0-a&amp;b</version>"));
+        assertEquals(2, MavenMetadata.readVersions(content).size());
+        assertTrue(MavenMetadata.readVersions(content).contains("1.0-a&b"));
+    }
+
+    @Test
+    void readsVersionsOutOfHandWrittenMetadata()
+    {
+        String xml = "<metadata>\n  <versioning>\n    <versions>\n      <version> 1.0 </version>\n"
+                + "      <version>1.1</version>\n    </versions>\n  </versioning>\n</metadata>\n";
+
+        assertEquals(Arrays.asList("1.0", "1.1"), MavenMetadata.readVersions(xml.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Collections.emptyList(), MavenMetadata.readVersions("<metadata/>".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertEquivalent(String a, String b)
+    {
+        assertEquals(a.compareTo(b), MavenMetadata.compareVersions(a, b), a + " vs " + b);
+        assertEquals(b.compareTo(a), MavenMetadata.compareVersions(b, a), b + " vs " + a);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParallelDeflaterTest
+{
+    /*
+     * Has to match the block size in ParallelDeflater, since the
+     * interesting sizes are the ones right at a block boundary
+     */
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void emptyFile() throws Exception
+    {
+        assertRoundTrip(new byte[0], Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    void lessThanOneBlock() throws Exception
+    {
+        assertRoundTrip(ZipWriterTest.randomBytes(1000), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    void exactlyOneBlock() throws Exception
+    {
+        assertRoundTrip(ZipWriterTest.randomBytes(BLOCK_SIZE), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    void exactlySeveralBlocks() throws Exception
+    {
+        assertRoundTrip(ZipWriterTest.randomBytes(3 * BLOCK_SIZE), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    void oneByteIntoTheNextBlock() throws Exception
+    {
+        assertRoundTrip(ZipWriterTest.randomBytes(3 * BLOCK_SIZE + 1), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /*
+     * Text repeats across block boundaries, so this leans on each
+     * block getting the previous one's tail as its dictionary
+     */
+    @Test
+    void compressibleDataAcrossBlocks() throws Exception
+    {
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(0);
+
+        while (builder.length() < 5 * BLOCK_SIZE)
+        {
+            builder.append("<dependency><groupId>org.example.").append(random.nextInt(100)).append("</groupId></dependency>\n");
+        }
+
+        byte[] content = builder.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = assertRoundTrip(content, Deflater.BEST_COMPRESSION);
+
+        assertTrue(compressed.length < content.length / 5, "compressed to " + compressed.length);
+    }
+
+    @Test
+    void storedLevel() throws Exception
+    {
+        assertRoundTrip(ZipWriterTest.randomBytes(2 * BLOCK_SIZE + 17), Deflater.NO_COMPRESSION);
+    }
+
+    @Test
+    void combineMatchesTheCrcOfTheConcatenation()
+    {
+        Random random = new Random(1);
+
+        for (int length1 : new int[] {0, 1, 1000, BLOCK_SIZE})
+        {
+            for (int length2 : new int[] {0, 1, 7, 1000, BLOCK_SIZE + 1})
+            {
+                byte[] first = new byte[length1];
+                byte[] second = new byte[length2];
+                random.nextBytes(first);
+                random.nextBytes(second);
+
+                byte[] both = Arrays.copyOf(first, length1 + length2);
+                System.arraycopy(second, 0, both, length1, length2);
+
+                long combined = ParallelDeflater.combine(ZipWriterTest.crc(first), ZipWriterTest.crc(second), length2);
+                assertEquals(ZipWriterTest.crc(both), combined, length1 + " + " + length2);
+            }
+        }
+    }
+
+    /*
+     * Deflates the content through a file, checks the returned CRC and
+     * the digest, and that it inflates back to exactly what went in
+     */
+    private byte[] assertRoundTrip(byte[] content, int level) throws Exception
+    {
+        Path file = folder.resolve("in.bin");
+        Files.write(file, content);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        long crc = ParallelDeflater.deflate(new File(file.toString()), level, os, sha1);
+
+        assertEquals(ZipWriterTest.crc(content), crc);
+        assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(content), sha1.digest());
+
+        byte[] compressed = os.toByteArray();
+        assertArrayEquals(content, inflate(compressed, content.length));
+        return compressed;
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) throws DataFormatException
+    {
+        Inflater inflater = new Inflater(true);
+
+        try
+        {
+            /*
+             * Raw inflate wants a byte past the end of the input
+             */
+            inflater.setInput(Arrays.copyOf(compressed, compressed.length + 1));
+            byte[] output = new byte[length + 1];
+            int total = 0;
+
+            while (!inflater.finished())
+            {
+                int read = inflater.inflate(output, total, output.length - total);
+
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+
+                total += read;
+            }
+
+            assertTrue(inflater.finished(), "stream wasn't finished");
+            assertEquals(1, inflater.getRemaining(), "data after the end of the stream");
+            return Arrays.copyOf(output, total);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReindexerTest
+{
+    @TempDir
+    Path root;
+
+    @Test
+    void rebuildsMetadataFromVersionFolders() throws Exception
+    {
+        pom("com/example/lib", "1.0");
+        pom("com/example/lib", "1.10");
+        pom("com/example/lib", "1.2");
+        pom("com/example/lib", "2.0-SNAPSHOT");
+        pom("org/other/tool", "0.1");
+
+        /*
+         * Neither of these is a version: no POM, and a POM by another name
+         */
+        Files.createDirectories(root.resolve("com/example/lib/3.0"));
+        write("com/example/lib/1.1/unrelated.pom", new byte[0]);
+
+        /*
+         * Stale metadata that the reindex has to replace
+         */
+        write("com/example/lib/maven-metadata.xml", MavenMetadata.render("com.example", "lib", Arrays.asList("0.9"), "20180101000000"));
+
+        int written = new Reindexer(root.toFile(), Arrays.asList(Checksum.MD5, Checksum.SHA1), new Metrics(false)).reindex(2);
+
+        assertEquals(2, written);
+
+        byte[] lib = Files.readAllBytes(root.resolve("com/example/lib/maven-metadata.xml"));
+        assertEquals(Arrays.asList("1.0", "1.2", "1.10", "2.0-SNAPSHOT"), MavenMetadata.readVersions(lib));
+
+        String xml = new String(lib, StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<groupId>com.example</groupId>"));
+        assertTrue(xml.contains("<latest>2.0-SNAPSHOT</latest>"));
+        assertTrue(xml.contains("<release>1.10</release>"));
+
+        assertArrayEquals(Checksum.calculate(lib, Checksum.MD5)[0].getBytes(StandardCharsets.US_ASCII),
+                Files.readAllBytes(root.resolve("com/example/lib/maven-metadata.xml.md5")));
+        assertArrayEquals(Checksum.calculate(lib, Checksum.SHA1)[0].getBytes(StandardCharsets.US_ASCII),
+                Files.readAllBytes(root.resolve("com/example/lib/maven-metadata.xml.sha1")));
+
+        byte[] tool = Files.readAllBytes(root.resolve("org/other/tool/maven-metadata.xml"));
+        assertEquals(Arrays.asList("0.1"), MavenMetadata.readVersions(tool));
+        assertTrue(new String(tool, StandardCharsets.UTF_8).contains("<groupId>org.other</groupId>"));
+    }
+
+    @Test
+    void ignoresPomsWithoutAGroupFolder() throws Exception
+    {
+        pom("lib", "1.0");
+
+        assertEquals(0, new Reindexer(root.toFile(), Arrays.asList(Checksum.SHA1), new Metrics(false)).reindex(1));
+        assertFalse(Files.exists(root.resolve("lib/maven-metadata.xml")));
+    }
+
+    /*
+     * Not how a dotted group is meant to be laid out, but it's what is
+     * on disk, and the metadata belongs next to the versions
+     */
+    @Test
+    void writesNextToAFolderWithADotInIt() throws Exception
+    {
+        pom("com/ex.ample/lib", "1.0");
+
+        assertEquals(1, new Reindexer(root.toFile(), Arrays.asList(Checksum.SHA1), new Metrics(false)).reindex(1));
+
+        byte[] lib = Files.readAllBytes(root.resolve("com/ex.ample/lib/maven-metadata.xml"));
+        assertEquals(Arrays.asList("1.0"), MavenMetadata.readVersions(lib));
+        assertTrue(new String(lib, StandardCharsets.UTF_8).contains("<groupId>com.ex.ample</groupId>"));
+        assertTrue(Files.exists(root.resolve("com/ex.ample/lib/maven-metadata.xml.sha1")));
+        assertFalse(Files.exists(root.resolve("com/ex")));
+    }
+
+    @Test
+    void rejectsAMissingFolder()
+    {
+        File missing = root.resolve("missing").toFile();
+
+        assertThrows(IOException.class, () -> new Reindexer(missing, Arrays.asList(Checksum.SHA1), new Metrics(false)).reindex(1));
+    }
+
+    private void pom(String artifactFolder, String version) throws IOException
+    {
+        String artifactName = artifactFolder.substring(artifactFolder.lastIndexOf('/') + 1);
+        write(artifactFolder + "/" + version + "/" + artifactName + "-" + version + ".pom", "<project/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void write(String path, byte[] content) throws IOException
+    {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+    }
+}
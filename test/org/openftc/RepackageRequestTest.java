@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+
+class RepackageRequestTest
+{
+    @Test
+    void rejectsTheSameCoordinatesTwice()
+    {
+        RepackageRequest.Builder builder = RepackageRequest.builder()
+                .artifact(new File("a.aar"), null, "org.example", "lib", "1.0")
+                .artifact(new File("b.aar"), null, "org.example", "lib", "1.0")
+                .output(new File("out.zip"));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, builder::build);
+        assertEquals("org.example:lib:1.0 was given more than once", e.getMessage());
+    }
+
+    @Test
+    void rejectsUnknownChecksums()
+    {
+        RepackageRequest.Builder builder = RepackageRequest.builder()
+                .artifact(new File("a.aar"), null, "org.example", "lib", "1.0")
+                .output(new File("out.zip"))
+                .checksums(Checksum.SHA1, "SHA-1");
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, builder::build);
+        assertEquals("Unsupported checksum SHA-1, pick from md5, sha1, sha256, sha512", e.getMessage());
+
+        builder.checksums(Checksum.SHA1, Checksum.SHA1);
+        assertThrows(IllegalStateException.class, builder::build);
+
+        builder.checksums(Checksum.SUPPORTED);
+        builder.build();
+    }
+
+    @Test
+    void rejectsCompressionLevelsDeflaterDoesNot()
+    {
+        RepackageRequest.Builder builder = RepackageRequest.builder()
+                .artifact(new File("a.aar"), null, "org.example", "lib", "1.0")
+                .output(new File("out.zip"));
+
+        for (int level : new int[] {-2, 10, Integer.MAX_VALUE})
+        {
+            IllegalStateException e = assertThrows(IllegalStateException.class, builder.compressionLevel(level)::build);
+            assertEquals("Compression level must be 0-9 (or -1 for the default), not " + level, e.getMessage());
+        }
+
+        for (int level = -1; level <= 9; level++)
+        {
+            builder.compressionLevel(level).build();
+        }
+    }
+}
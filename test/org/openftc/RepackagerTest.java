@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Runs whole repackages through the API and reads the result back
+ * with java.util.zip, including the runs that go wrong
+ */
+class RepackagerTest
+{
+    @TempDir
+    Path folder;
+
+    /*
+     * Staging in a folder and streaming straight into the ZIP are two
+     * ways of getting the same thing
+     */
+    @Test
+    void stagedAndStreamedZipsMatch() throws Exception
+    {
+        byte[] content = ZipWriterTest.randomBytes(10000);
+        byte[] sourcesContent = ZipWriterTest.randomBytes(2000);
+        File input = write("lib.aar", content);
+        File sources = write("lib-sources.jar", sourcesContent);
+        List<List<String>> names = new ArrayList<>();
+
+        for (boolean stream : new boolean[] {false, true})
+        {
+            File output = folder.resolve(stream ? "streamed.zip" : "staged.zip").toFile();
+
+            RepackageResult result = repackage(RepackageRequest.builder()
+                    .artifact(input, sources, "org.example", "lib", "1.0")
+                    .output(output)
+                    .stream(stream));
+
+            assertFalse(result.upToDate());
+            assertEquals(Checksum.calculate(content, Checksum.SHA1)[0], result.checksums().get("org/example/lib/1.0/lib-1.0.aar").get(Checksum.SHA1));
+
+            try (ZipFile zip = new ZipFile(output))
+            {
+                ZipWriterTest.assertEntry(zip, "org/example/lib/1.0/lib-1.0.aar", ZipEntry.STORED, content);
+                ZipWriterTest.assertEntry(zip, "org/example/lib/1.0/lib-1.0-sources.jar", ZipEntry.STORED, sourcesContent);
+                assertEquals(Checksum.calculate(content, Checksum.MD5)[0], new String(readEntry(zip, "org/example/lib/1.0/lib-1.0.aar.md5"), StandardCharsets.US_ASCII));
+                assertEquals(Arrays.asList("1.0"), MavenMetadata.readVersions(readEntry(zip, "org/example/lib/maven-metadata.xml")));
+                names.add(entryNames(zip));
+            }
+        }
+
+        assertEquals(Arrays.asList(
+                "org/example/lib/1.0/lib-1.0-sources.jar",
+                "org/example/lib/1.0/lib-1.0-sources.jar.md5",
+                "org/example/lib/1.0/lib-1.0-sources.jar.sha1",
+                "org/example/lib/1.0/lib-1.0.aar",
+                "org/example/lib/1.0/lib-1.0.aar.md5",
+                "org/example/lib/1.0/lib-1.0.aar.sha1",
+                "org/example/lib/1.0/lib-1.0.pom",
+                "org/example/lib/1.0/lib-1.0.pom.md5",
+                "org/example/lib/1.0/lib-1.0.pom.sha1",
+                "org/example/lib/maven-metadata.xml",
+                "org/example/lib/maven-metadata.xml.md5",
+                "org/example/lib/maven-metadata.xml.sha1"), names.get(0));
+        assertEquals(names.get(0), names.get(1));
+        assertEquals(Arrays.asList("lib-sources.jar", "lib.aar", "staged.zip", "streamed.zip"), listFolder());
+    }
+
+    /*
+     * Several artifacts in one request all go in the one ZIP, with the
+     * versions of the same artifact sharing its metadata
+     */
+    @Test
+    void combinedZipHoldsEveryArtifact() throws Exception
+    {
+        File first = write("first.aar", ZipWriterTest.randomBytes(1000));
+        File second = write("second.aar", ZipWriterTest.randomBytes(2000));
+        File other = write("other.jar", ZipWriterTest.randomBytes(3000));
+        File output = folder.resolve("out.zip").toFile();
+
+        repackage(RepackageRequest.builder()
+                .artifact(first, null, "org.example", "lib", "1.0")
+                .artifact(second, null, "org.example", "lib", "1.1")
+                .artifact(other, null, "com.other", "lib", "1.0")
+                .output(output));
+
+        try (ZipFile zip = new ZipFile(output))
+        {
+            ZipWriterTest.assertEntry(zip, "org/example/lib/1.0/lib-1.0.aar", ZipEntry.STORED, Files.readAllBytes(first.toPath()));
+            ZipWriterTest.assertEntry(zip, "org/example/lib/1.1/lib-1.1.aar", ZipEntry.STORED, Files.readAllBytes(second.toPath()));
+            ZipWriterTest.assertEntry(zip, "com/other/lib/1.0/lib-1.0.jar", ZipEntry.STORED, Files.readAllBytes(other.toPath()));
+            assertEquals(Arrays.asList("1.0", "1.1"), MavenMetadata.readVersions(readEntry(zip, "org/example/lib/maven-metadata.xml")));
+            assertEquals(Arrays.asList("1.0"), MavenMetadata.readVersions(readEntry(zip, "com/other/lib/maven-metadata.xml")));
+        }
+    }
+
+    /*
+     * A new version merged into the ZIP it came out of keeps the old
+     * version, and the metadata lists both
+     */
+    @Test
+    void mergeKeepsWhatWasThere() throws Exception
+    {
+        byte[] oldContent = ZipWriterTest.randomBytes(1000);
+        byte[] newContent = ZipWriterTest.randomBytes(2000);
+        File input = write("lib.aar", oldContent);
+        File output = folder.resolve("out.zip").toFile();
+
+        for (String version : new String[] {"1.0", "1.1"})
+        {
+            repackage(RepackageRequest.builder()
+                    .artifact(input, null, "org.example", "lib", version)
+                    .output(output)
+                    .merge(output));
+
+            Files.write(input.toPath(), newContent);
+        }
+
+        try (ZipFile zip = new ZipFile(output))
+        {
+            ZipWriterTest.assertEntry(zip, "org/example/lib/1.0/lib-1.0.aar", ZipEntry.STORED, oldContent);
+            ZipWriterTest.assertEntry(zip, "org/example/lib/1.1/lib-1.1.aar", ZipEntry.STORED, newContent);
+            assertEquals(Arrays.asList("1.0", "1.1"), MavenMetadata.readVersions(readEntry(zip, "org/example/lib/maven-metadata.xml")));
+        }
+
+        assertEquals(Arrays.asList("lib.aar", "out.zip"), listFolder());
+    }
+
+    /*
+     * Only a change to what goes into the ZIP gets it built again
+     */
+    @Test
+    void incrementalRebuildsOnlyWhenSomethingChanged() throws Exception
+    {
+        File input = write("lib.aar", ZipWriterTest.randomBytes(10000));
+        File output = folder.resolve("out.zip").toFile();
+
+        RepackageRequest.Builder request = RepackageRequest.builder()
+                .artifact(input, null, "org.example", "lib", "1.0")
+                .output(output)
+                .incremental(true);
+
+        assertFalse(repackage(request).upToDate());
+        byte[] built = Files.readAllBytes(output.toPath());
+
+        assertTrue(repackage(request).upToDate());
+        assertArrayEquals(built, Files.readAllBytes(output.toPath()));
+
+        /*
+         * New content, and then a different option
+         */
+        byte[] changed = ZipWriterTest.randomBytes(20000);
+        Files.write(input.toPath(), changed);
+        assertFalse(repackage(request).upToDate());
+
+        try (ZipFile zip = new ZipFile(output))
+        {
+            ZipWriterTest.assertEntry(zip, "org/example/lib/1.0/lib-1.0.aar", ZipEntry.STORED, changed);
+        }
+
+        assertTrue(repackage(request).upToDate());
+        assertFalse(repackage(request.checksums(Checksum.SHA256)).upToDate());
+
+        try (ZipFile zip = new ZipFile(output))
+        {
+            assertNotNull(zip.getEntry("org/example/lib/1.0/lib-1.0.aar.sha256"));
+            assertNull(zip.getEntry("org/example/lib/1.0/lib-1.0.aar.md5"));
+        }
+    }
+
+    /*
+     * Writing into a repository folder adds to what is published there
+     * and leaves no temporary files behind
+     */
+    @Test
+    void repositoryGetsTheLayoutAddedToIt() throws Exception
+    {
+        byte[] oldContent = ZipWriterTest.randomBytes(1000);
+        byte[] newContent = ZipWriterTest.randomBytes(2000);
+        File input = write("lib.aar", oldContent);
+        File repository = folder.resolve("repo").toFile();
+
+        for (String version : new String[] {"1.0", "1.1"})
+        {
+            RepackageResult result = repackage(RepackageRequest.builder()
+                    .artifact(input, null, "org.example", "lib", version)
+                    .repository(repository));
+
+            assertEquals(repository, result.outputFile());
+            Files.write(input.toPath(), newContent);
+        }
+
+        Path lib = repository.toPath().resolve("org/example/lib");
+        assertArrayEquals(oldContent, Files.readAllBytes(lib.resolve("1.0/lib-1.0.aar")));
+        assertArrayEquals(newContent, Files.readAllBytes(lib.resolve("1.1/lib-1.1.aar")));
+        assertEquals(Checksum.calculate(newContent, Checksum.SHA1)[0], new String(Files.readAllBytes(lib.resolve("1.1/lib-1.1.aar.sha1")), StandardCharsets.US_ASCII));
+        assertTrue(Files.exists(lib.resolve("1.1/lib-1.1.pom")));
+
+        byte[] metadata = Files.readAllBytes(lib.resolve("maven-metadata.xml"));
+        assertEquals(Arrays.asList("1.0", "1.1"), MavenMetadata.readVersions(metadata));
+        assertEquals(Checksum.calculate(metadata, Checksum.MD5)[0], new String(Files.readAllBytes(lib.resolve("maven-metadata.xml.md5")), StandardCharsets.US_ASCII));
+
+        try (Stream<Path> files = Files.walk(repository.toPath()))
+        {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    /*
+     * The old ZIP stays exactly as it was, and nothing the failed run
+     * made is left lying around
+     */
+    @Test
+    void failedRunLeavesTheOldZipAlone() throws Exception
+    {
+        File input = write("lib.aar", ZipWriterTest.randomBytes(10000));
+        File output = folder.resolve("out.zip").toFile();
+
+        repackage(RepackageRequest.builder()
+                .artifact(input, null, "org.example", "lib", "1.0")
+                .output(output));
+
+        byte[] before = Files.readAllBytes(output.toPath());
+
+        assertThrows(ZipException.class, () -> repackage(RepackageRequest.builder()
+                .artifact(input, null, "org.example", "lib", "1.1")
+                .output(output)
+                .merge(brokenZip())));
+
+        assertArrayEquals(before, Files.readAllBytes(output.toPath()));
+        assertEquals(Arrays.asList("broken.zip", "lib.aar", "out.zip"), listFolder());
+    }
+
+    @Test
+    void failedFirstRunLeavesNoZip() throws Exception
+    {
+        File input = write("lib.aar", ZipWriterTest.randomBytes(10000));
+        File output = folder.resolve("out.zip").toFile();
+
+        assertThrows(ZipException.class, () -> repackage(RepackageRequest.builder()
+                .artifact(input, null, "org.example", "lib", "1.0")
+                .output(output)
+                .stream(true)
+                .merge(brokenZip())));
+
+        assertEquals(Arrays.asList("broken.zip", "lib.aar"), listFolder());
+    }
+
+    /*
+     * A failed run can leave its staging folder behind, full of hard
+     * links to the inputs. The next run must neither write through
+     * them nor pick up whatever else is lying in there.
+     */
+    @Test
+    void staleStagingFolderIsNotWrittenThrough() throws Exception
+    {
+        byte[] content = ZipWriterTest.randomBytes(10000);
+        File input = write("lib.aar", content);
+        File output = folder.resolve("out.zip").toFile();
+        Path stale = folder.resolve("out.zip.staging/org/example/lib/1.0");
+        Files.createDirectories(stale);
+        Files.createLink(stale.resolve("lib-1.0.aar"), input.toPath());
+        Files.write(stale.resolve("lib-1.0-sources.jar"), new byte[10]);
+
+        repackage(RepackageRequest.builder()
+                .artifact(input, null, "org.example", "lib", "1.0")
+                .output(output));
+
+        assertArrayEquals(content, Files.readAllBytes(input.toPath()));
+        assertEquals(Arrays.asList("lib.aar", "out.zip"), listFolder());
+
+        try (ZipFile zip = new ZipFile(output))
+        {
+            assertArrayEquals(content, readEntry(zip, "org/example/lib/1.0/lib-1.0.aar"));
+            assertNull(zip.getEntry("org/example/lib/1.0/lib-1.0-sources.jar"));
+        }
+    }
+
+    /*
+     * The run fails after the fingerprint has been worked out, then
+     * the same inputs are tried again: that second run has to do the
+     * work rather than find a ZIP claiming to be up to date
+     */
+    @Test
+    void failedRunIsNotUpToDateOnRerun() throws Exception
+    {
+        File input = write("lib.aar", ZipWriterTest.randomBytes(10000));
+        File sources = write("lib-sources.jar", ZipWriterTest.randomBytes(2000));
+        File moved = folder.resolve("moved.jar").toFile();
+        File output = folder.resolve("out.zip").toFile();
+
+        /*
+         * Takes the sources away just as the copying starts
+         */
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>())
+        {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task)
+            {
+                sources.renameTo(moved);
+            }
+        };
+
+        try (Repackager repackager = Repackager.builder().executor(executor).build())
+        {
+            RepackageRequest request = RepackageRequest.builder()
+                    .artifact(input, sources, "org.example", "lib", "1.0")
+                    .output(output)
+                    .incremental(true)
+                    .build();
+
+            assertThrows(IOException.class, () -> repackager.repackage(request));
+            assertFalse(output.exists());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertTrue(moved.renameTo(sources));
+
+        RepackageResult result = repackage(RepackageRequest.builder()
+                .artifact(input, sources, "org.example", "lib", "1.0")
+                .output(output)
+                .incremental(true));
+
+        assertFalse(result.upToDate());
+
+        try (ZipFile zipFile = new ZipFile(output))
+        {
+            ZipWriterTest.assertEntry(zipFile, "org/example/lib/1.0/lib-1.0-sources.jar", ZipEntry.STORED, Files.readAllBytes(sources.toPath()));
+        }
+
+        assertTrue(repackage(RepackageRequest.builder()
+                .artifact(input, sources, "org.example", "lib", "1.0")
+                .output(output)
+                .incremental(true)).upToDate());
+    }
+
+    static RepackageResult repackage(RepackageRequest.Builder request) throws Exception
+    {
+        try (Repackager repackager = Repackager.builder().build())
+        {
+            return repackager.repackage(request.build());
+        }
+    }
+
+    /*
+     * Fine as far as reading its central directory goes, but the first
+     * entry's local header is garbage, so transplanting from it fails
+     * only once everything else has been written
+     */
+    private File brokenZip() throws IOException
+    {
+        File zip = folder.resolve("broken.zip").toFile();
+
+        try (ZipWriter writer = new ZipWriter(zip, Deflater.DEFAULT_COMPRESSION, false))
+        {
+            writer.write("org/example/other/1.0/other-1.0.aar", new byte[100]);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(zip, "rw"))
+        {
+            raf.write(0);
+        }
+
+        return zip;
+    }
+
+    private static byte[] readEntry(ZipFile zip, String name) throws IOException
+    {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name)))
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+
+            for (int n; (n = in.read(buffer)) != -1; )
+            {
+                out.write(buffer, 0, n);
+            }
+
+            return out.toByteArray();
+        }
+    }
+
+    private static List<String> entryNames(ZipFile zip)
+    {
+        List<String> names = new ArrayList<>();
+
+        for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); )
+        {
+            names.add(entries.nextElement().getName());
+        }
+
+        Collections.sort(names);
+        return names;
+    }
+
+    private File write(String name, byte[] content) throws IOException
+    {
+        Path file = folder.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        return file.toFile();
+    }
+
+    /*
+     * Everything in the test folder, hidden files included
+     */
+    private List<String> listFolder() throws IOException
+    {
+        List<String> names = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(folder))
+        {
+            files.forEach(file -> names.add(file.getFileName().toString()));
+        }
+
+        Collections.sort(names);
+        return names;
+    }
+}
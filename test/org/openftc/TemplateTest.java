@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class TemplateTest
+{
+    private static final String POM = "/artifact-pom.pom";
+
+    @Test
+    void escapesXml()
+    {
+        assertEquals("a &amp; b &lt;c&gt; &quot;d&quot; &apos;e&apos;", Template.escapeXml("a & b <c> \"d\" 'e'"));
+        assertEquals("plain-1.0_x", Template.escapeXml("plain-1.0_x"));
+        assertEquals("", Template.escapeXml(""));
+        assertEquals("café ✓", Template.escapeXml("café ✓"));
+    }
+
+    @Test
+    void fillsInAndEscapesPlaceholders() throws Exception
+    {
+        Map<String, String> values = new HashMap<>();
+        values.put("GROUP_ID_HERE", "org.example");
+        values.put("ARTIFACT_ID_HERE", "lib</artifactId><evil/>");
+        values.put("ARTIFACT_VERSION_HERE", "1.0-é");
+        values.put("ARTIFACT_EXTENSION_HERE", "aar");
+
+        String pom = new String(Template.load(POM).render(values), StandardCharsets.UTF_8);
+
+        assertTrue(pom.contains("<groupId>org.example</groupId>"));
+        assertTrue(pom.contains("<artifactId>lib&lt;/artifactId&gt;&lt;evil/&gt;</artifactId>"));
+        assertTrue(pom.contains("<version>1.0-é</version>"));
+        assertFalse(pom.contains("_HERE"));
+        assertFalse(pom.contains("<evil/>"));
+    }
+
+    @Test
+    void fragmentsGoInAsTheyAre() throws Exception
+    {
+        Map<String, String> values = new HashMap<>();
+        values.put("ARTIFACT_VERSION_HERE", "1.0");
+
+        Map<String, byte[]> fragments = new HashMap<>();
+        fragments.put("ARTIFACT_VERSION_HERE", "<b>&amp;</b>".getBytes(StandardCharsets.UTF_8));
+
+        String rendered = new String(Template.load("/maven-metadata-version.xml").render(values, fragments), StandardCharsets.UTF_8);
+
+        assertEquals("      <version><b>&amp;</b></version>\n", rendered);
+    }
+
+    @Test
+    void missingValuesAreAnError() throws Exception
+    {
+        Template template = Template.load("/maven-metadata-version.xml");
+
+        assertThrows(IllegalArgumentException.class, () -> template.render(new HashMap<String, String>()));
+    }
+
+    @Test
+    void templatesAreParsedOnce() throws Exception
+    {
+        Template template = Template.load(POM);
+
+        assertSame(template, Template.load(POM));
+        assertTrue(template.source().contains("ARTIFACT_ID_HERE"));
+    }
+}
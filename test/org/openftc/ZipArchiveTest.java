@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ZipArchiveTest
+{
+    @TempDir
+    Path folder;
+
+    @Test
+    void readsTheCentralDirectory() throws Exception
+    {
+        byte[] content = ZipWriterTest.randomBytes(20000);
+        File zip = folder.resolve("in.zip").toFile();
+
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip)))
+        {
+            zos.setComment("with a comment, so the end record isn't last");
+
+            zos.putNextEntry(new ZipEntry("first.txt"));
+            zos.write(content);
+            zos.closeEntry();
+
+            ZipEntry stored = new ZipEntry("dir/stored.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCrc(ZipWriterTest.crc(content));
+            stored.setExtra(new byte[] {(byte) 0xfe, (byte) 0xca, 2, 0, 1, 2});
+            zos.putNextEntry(stored);
+            zos.write(content);
+            zos.closeEntry();
+        }
+
+        try (ZipArchive archive = new ZipArchive(zip))
+        {
+            assertEquals(2, archive.entries.size());
+
+            ZipArchive.Entry first = archive.entries.get(0);
+            assertEquals("first.txt", new String(first.name, StandardCharsets.UTF_8));
+            assertEquals(ZipWriter.DEFLATED, first.method);
+            assertEquals(content.length, first.size);
+            assertEquals(ZipWriterTest.crc(content), first.crc);
+
+            /*
+             * The local header has an extra field of its own, so the
+             * data offset has to come from there
+             */
+            ZipArchive.Entry second = archive.entries.get(1);
+            assertEquals("dir/stored.bin", new String(second.name, StandardCharsets.UTF_8));
+            assertEquals(ZipWriter.STORED, second.method);
+            assertEquals(content.length, second.compressedSize);
+
+            ByteBuffer data = ByteBuffer.allocate(content.length);
+            archive.channel.read(data, archive.dataOffset(second));
+            assertArrayEquals(content, data.array());
+        }
+    }
+
+    @Test
+    void readsZip64EndRecords() throws Exception
+    {
+        File zip = folder.resolve("in.zip").toFile();
+        int count = 66000;
+
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip)))
+        {
+            for (int i = 0; i < count; i++)
+            {
+                zos.putNextEntry(new ZipEntry(i + ".txt"));
+                zos.closeEntry();
+            }
+        }
+
+        try (ZipArchive archive = new ZipArchive(zip))
+        {
+            assertEquals(count, archive.entries.size());
+            assertEquals("65999.txt", new String(archive.entries.get(count - 1).name, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void rejectsSomethingThatIsNotAZip() throws Exception
+    {
+        Path file = folder.resolve("not.zip");
+        Files.write(file, ZipWriterTest.randomBytes(1000));
+
+        assertThrows(ZipException.class, () -> new ZipArchive(file.toFile()).close());
+    }
+}
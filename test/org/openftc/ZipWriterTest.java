@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2018 OpenFTC Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.openftc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Everything written here is read back with java.util.zip, which is
+ * what Gradle, Maven and friends will be reading our output with
+ */
+class ZipWriterTest
+{
+    @TempDir
+    Path folder;
+
+    @Test
+    void storedAndDeflatedEntriesReadBack() throws Exception
+    {
+        byte[] pom = "<project>\n  <modelVersion>4.0.0</modelVersion>\n</project>\n".getBytes(StandardCharsets.UTF_8);
+        byte[] aar = randomBytes(300000);
+        byte[] jar = randomBytes(200000);
+        File aarFile = write("lib.aar", aar);
+        File jarFile = write("lib-sources.jar", jar);
+        File zip = folder.resolve("out.zip").toFile();
+
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+
+        try (ZipWriter writer = new ZipWriter(zip, Deflater.BEST_COMPRESSION, false))
+        {
+            writer.write("g/a/1.0/a-1.0.pom", pom);
+            writer.write("g/a/1.0/small.aar", jar);
+            writer.writeStored("g/a/1.0/a-1.0.aar", aarFile, crc(aar));
+            writer.writeDeflated("g/a/1.0/a-1.0-sources.jar", jarFile, md5);
+            writer.finish("a comment");
+        }
+
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(jar), md5.digest());
+
+        try (ZipFile zipFile = new ZipFile(zip))
+        {
+            assertEquals(4, zipFile.size());
+            assertEquals("a comment", zipFile.getComment());
+
+            assertEntry(zipFile, "g/a/1.0/a-1.0.pom", ZipEntry.DEFLATED, pom);
+            assertEntry(zipFile, "g/a/1.0/small.aar", ZipEntry.STORED, jar);
+            assertEntry(zipFile, "g/a/1.0/a-1.0.aar", ZipEntry.STORED, aar);
+            assertEntry(zipFile, "g/a/1.0/a-1.0-sources.jar", ZipEntry.DEFLATED, jar);
+        }
+    }
+
+    @Test
+    void bytesWrittenMatchesTheFile() throws Exception
+    {
+        File zip = folder.resolve("out.zip").toFile();
+        ZipWriter writer = new ZipWriter(zip, Deflater.DEFAULT_COMPRESSION, false);
+
+        try
+        {
+            writer.write("a.pom", new byte[100]);
+            writer.write("b.aar", randomBytes(5000));
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        assertEquals(zip.length(), writer.bytesWritten());
+    }
+
+    @Test
+    void emptyZipReadsBack() throws Exception
+    {
+        File zip = folder.resolve("out.zip").toFile();
+        new ZipWriter(zip, Deflater.DEFAULT_COMPRESSION, false).close();
+
+        try (ZipFile zipFile = new ZipFile(zip))
+        {
+            assertEquals(0, zipFile.size());
+        }
+    }
+
+    @Test
+    void duplicateNamesAreRejected() throws Exception
+    {
+        try (ZipWriter writer = new ZipWriter(folder.resolve("out.zip").toFile(), Deflater.DEFAULT_COMPRESSION, false))
+        {
+            writer.write("a.pom", new byte[10]);
+
+            ZipException e = assertThrows(ZipException.class, () -> writer.write("a.pom", new byte[10]));
+            assertEquals("duplicate entry: a.pom", e.getMessage());
+        }
+    }
+
+    @Test
+    void abortedZipHasNoCentralDirectory() throws Exception
+    {
+        File zip = folder.resolve("out.zip").toFile();
+        ZipWriter writer = new ZipWriter(zip, Deflater.DEFAULT_COMPRESSION, false);
+        writer.write("a.pom", new byte[100]);
+        writer.abort();
+
+        /*
+         * Neither of these may finish it off after all
+         */
+        writer.finish("a comment");
+        writer.close();
+
+        assertThrows(ZipException.class, () -> new ZipFile(zip).close());
+        assertNull(FileUtil.zipComment(zip));
+    }
+
+    /*
+     * More entries than the classic end record can count, so the
+     * ZIP64 end records have to be there (entries over 4GB are left
+     * to the integration tests)
+     */
+    @Test
+    void tooManyEntriesForClassicZip() throws Exception
+    {
+        File zip = folder.resolve("out.zip").toFile();
+        int count = 70000;
+
+        try (ZipWriter writer = new ZipWriter(zip, Deflater.DEFAULT_COMPRESSION, false))
+        {
+            for (int i = 0; i < count; i++)
+            {
+                writer.write("e/" + i + ".aar", Integer.toString(i).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip))
+        {
+            assertEquals(count, zipFile.size());
+            assertEntry(zipFile, "e/0.aar", ZipEntry.STORED, "0".getBytes(StandardCharsets.US_ASCII));
+            assertEntry(zipFile, "e/69999.aar", ZipEntry.STORED, "69999".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        try (ZipArchive archive = new ZipArchive(zip))
+        {
+            assertEquals(count, archive.entries.size());
+        }
+    }
+
+    @Test
+    void transplantCopiesWhatIsNotWrittenYet() throws Exception
+    {
+        byte[] old = "old".getBytes(StandardCharsets.UTF_8);
+        byte[] kept = randomBytes(100000);
+        byte[] text = "some text\n".getBytes(StandardCharsets.UTF_8);
+        File keptFile = write("kept.aar", kept);
+        File source = folder.resolve("source.zip").toFile();
+
+        try (ZipWriter writer = new ZipWriter(source, Deflater.DEFAULT_COMPRESSION, false))
+        {
+            writer.write("replaced.pom", old);
+            writer.writeStored("kept.aar", keptFile, crc(kept));
+            writer.writeDeflated("kept-sources.jar", keptFile);
+            writer.write("kept.pom", text);
+        }
+
+        byte[] replacement = "new".getBytes(StandardCharsets.UTF_8);
+        File zip = folder.resolve("out.zip").toFile();
+
+        try (ZipWriter writer = new ZipWriter(zip, Deflater.DEFAULT_COMPRESSION, false))
+        {
+            writer.write("replaced.pom", replacement);
+            writer.transplantAll(source);
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip))
+        {
+            assertEquals(4, zipFile.size());
+            assertEntry(zipFile, "replaced.pom", ZipEntry.DEFLATED, replacement);
+            assertEntry(zipFile, "kept.aar", ZipEntry.STORED, kept);
+            assertEntry(zipFile, "kept-sources.jar", ZipEntry.DEFLATED, kept);
+            assertEntry(zipFile, "kept.pom", ZipEntry.DEFLATED, text);
+        }
+    }
+
+    /*
+     * ZipOutputStream puts a data descriptor after every deflated
+     * entry, which the transplanted copy has to do without
+     */
+    @Test
+    void transplantFromZipOutputStream() throws Exception
+    {
+        byte[] content = randomBytes(50000);
+        File source = folder.resolve("source.zip").toFile();
+
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(source)))
+        {
+            zos.putNextEntry(new ZipEntry("deflated.bin"));
+            zos.write(content);
+            zos.closeEntry();
+
+            ZipEntry stored = new ZipEntry("stored.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCrc(crc(content));
+            zos.putNextEntry(stored);
+            zos.write(content);
+            zos.closeEntry();
+        }
+
+        File zip = folder.resolve("out.zip").toFile();
+
+        try (ZipWriter writer = new ZipWriter(zip, Deflater.DEFAULT_COMPRESSION, false))
+        {
+            writer.transplantAll(source);
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip))
+        {
+            assertEntry(zipFile, "deflated.bin", ZipEntry.DEFLATED, content);
+            assertEntry(zipFile, "stored.bin", ZipEntry.STORED, content);
+            assertNull(zipFile.getEntry("missing"));
+        }
+    }
+
+    /*
+     * ZipOutputStream given another charset writes names in it without
+     * the UTF-8 flag. The copy has to keep both the bytes and the
+     * missing flag, or the name turns into something else entirely.
+     */
+    @Test
+    void transplantKeepsNamesThatAreNotUtf8() throws Exception
+    {
+        Charset ibm437 = Charset.forName("IBM437");
+        byte[] content = randomBytes(1000);
+        byte[] written = randomBytes(2000);
+        File source = folder.resolve("source.zip").toFile();
+
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(source), ibm437))
+        {
+            for (String name : new String[] {"café.txt", "naïve.txt"})
+            {
+                zos.putNextEntry(new ZipEntry(name));
+                zos.write(content);
+                zos.closeEntry();
+            }
+        }
+
+        File zip = folder.resolve("out.zip").toFile();
+
+        try (ZipWriter writer = new ZipWriter(zip, Deflater.DEFAULT_COMPRESSION, false))
+        {
+            writer.write("naïve.txt", written);
+            writer.transplantAll(source);
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip, ibm437))
+        {
+            assertEntry(zipFile, "café.txt", ZipEntry.DEFLATED, content);
+            assertEntry(zipFile, "naïve.txt", ZipEntry.STORED, written);
+            assertEquals(2, zipFile.size());
+        }
+    }
+
+    static void assertEntry(ZipFile zipFile, String name, int method, byte[] expected) throws IOException
+    {
+        ZipEntry entry = zipFile.getEntry(name);
+        assertEquals(method, entry.getMethod(), name);
+        assertEquals(expected.length, entry.getSize(), name);
+        assertEquals(crc(expected), entry.getCrc(), name);
+
+        try (InputStream is = zipFile.getInputStream(entry))
+        {
+            assertArrayEquals(expected, readAll(is), name);
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = is.read(buffer)) > 0)
+        {
+            os.write(buffer, 0, read);
+        }
+
+        return os.toByteArray();
+    }
+
+    private File write(String name, byte[] content) throws IOException
+    {
+        Path file = folder.resolve(name);
+        Files.write(file, content);
+        return file.toFile();
+    }
+
+    static byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    static long crc(byte[] content)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}